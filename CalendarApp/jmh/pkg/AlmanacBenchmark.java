@@ -0,0 +1,153 @@
+package pkg;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * Runs the JMH benchmarks (SwissEphDateBenchmark and MonthPipelineBenchmark) with the gc profiler and reports
+ * the average time and the bytes allocated per operation of each
+ * Results can be saved to a file and compared against on the next run so slowdowns and extra allocation show up
+ *
+ * Benchmarks with a budget (the startup one, the part of time to first frame the app controls) fail the run
+ * when they go over it, baseline or not
+ *
+ * Usage: AlmanacBenchmark [-save results.txt] [-baseline results.txt] [-only regexp]
+ * Exits with 2 on a regression and 3 over a budget, for JMH's own options run the jar's main instead,
+ * eg. java -jar target/benchmarks.jar -prof gc MonthPipelineBenchmark
+ */
+
+public class AlmanacBenchmark {
+	// Anything slower or allocating more than this much over the baseline is reported as a regression
+	static final double REGRESSION_THRESHOLD = 0.10;
+
+	// Most a benchmark may take in microseconds per operation
+	static final Map<String, Double> BUDGETS = new HashMap<>();
+	static {
+		BUDGETS.put("MonthPipelineBenchmark.startupSnapshot", 250.0);
+	}
+
+	static final GeoLocation LOCATION = new GeoLocation(-119.4960, 49.803, 334.0);
+	static final LocalDate FIRST_DATE = LocalDate.of(2021, 1, 1);
+
+	static final class Result {
+		final String name; // benchmark class and method eg. MonthPipelineBenchmark.month
+		final double microsPerOp;
+		final double bytesPerOp;
+
+		Result(String name, double microsPerOp, double bytesPerOp) {
+			this.name = name;
+			this.microsPerOp = microsPerOp;
+			this.bytesPerOp = bytesPerOp;
+		}
+	}
+
+	// Runs every benchmark matching only (all of them if null) and returns their results in order
+	static List<Result> run(String only) throws Exception {
+		ChainedOptionsBuilder options = new OptionsBuilder().addProfiler(GCProfiler.class);
+		if (only != null)
+			options.include(only);
+
+		List<Result> results = new ArrayList<>();
+		for (RunResult run : new Runner(options.build()).run()) {
+			String name = run.getParams().getBenchmark();
+			name = name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1);
+			results.add(new Result(name, run.getPrimaryResult().getScore(), allocated(run)));
+		}
+		return results;
+	}
+
+	// Bytes per operation from the gc profiler, whose label has a leading dot in some JMH versions
+	private static double allocated(RunResult run) {
+		for (String label : run.getSecondaryResults().keySet())
+			if (label.endsWith("gc.alloc.rate.norm"))
+				return run.getSecondaryResults().get(label).getScore();
+		return 0;
+	}
+
+	// *** Baseline files, one line per benchmark: name, us/op and bytes/op separated by tabs
+
+	static Map<String, Result> load(String file) throws IOException {
+		Map<String, Result> results = new HashMap<>();
+		try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] parts = line.split("\t");
+				if (parts.length == 3)
+					results.put(parts[0], new Result(parts[0], Double.parseDouble(parts[1]), Double.parseDouble(parts[2])));
+			}
+		}
+		return results;
+	}
+
+	static void save(String file, List<Result> results) throws IOException {
+		try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+			for (Result r : results)
+				out.println(r.name + "\t" + r.microsPerOp + "\t" + r.bytesPerOp);
+		}
+	}
+
+	// Change from the baseline as a signed percentage, flagged when it passes the threshold
+	private static String change(double now, double before, boolean[] regressed) {
+		if (before <= 0)
+			return "";
+		double change = (now - before) / before;
+		if (change > REGRESSION_THRESHOLD)
+			regressed[0] = true;
+		return String.format(" %+6.1f%%%s", change * 100, change > REGRESSION_THRESHOLD ? " REGRESSION" : "");
+	}
+
+	public static void main(String[] args) throws Exception {
+		String savePath = null, baselinePath = null, only = null;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "-save": savePath = args[i + 1]; break;
+			case "-baseline": baselinePath = args[i + 1]; break;
+			case "-only": only = args[i + 1]; break;
+			default:
+				System.err.println("Unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+
+		Map<String, Result> baseline = baselinePath != null ? load(baselinePath) : new HashMap<>();
+		List<Result> results = run(only);
+		boolean[] regressed = { false };
+		boolean overBudget = false;
+
+		System.out.println(String.format("%-42s %14s %14s", "Benchmark", "us/op", "bytes/op"));
+		for (Result r : results) {
+			Result before = baseline.get(r.name);
+			System.out.println(String.format("%-42s %14.1f%s %14.0f%s", r.name, r.microsPerOp,
+					before != null ? change(r.microsPerOp, before.microsPerOp, regressed) : "", r.bytesPerOp,
+					before != null ? change(r.bytesPerOp, before.bytesPerOp, regressed) : ""));
+
+			Double budget = BUDGETS.get(r.name);
+			if (budget != null && r.microsPerOp > budget) {
+				System.out.println(String.format("%-42s over its budget of %.0f us/op", r.name, budget));
+				overBudget = true;
+			}
+		}
+
+		if (savePath != null)
+			save(savePath, results);
+		if (regressed[0]) {
+			System.out.println("Regressions over " + (int) (REGRESSION_THRESHOLD * 100) + "% against " + baselinePath);
+			System.exit(2);
+		}
+		if (overBudget)
+			System.exit(3);
+	}
+}
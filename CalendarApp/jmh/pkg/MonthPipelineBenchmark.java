@@ -0,0 +1,111 @@
+package pkg;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * JMH benchmarks for the month grid pipeline: a whole month worked out the way setMonth does it, cold and
+ * cached, the month read back from its session snapshot at startup, and a year of CSV export
+ * Forks run with the AlmanacStore turned off so the cold benchmarks are real calculations, see AlmanacBenchmark
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dcalendar.store=false")
+public class MonthPipelineBenchmark {
+	private final RangeCalculator calculator = new RangeCalculator();
+	private int op;
+	private byte[] snapshot;
+
+	// Clears the DayCache before every invocation that uses it
+	@State(Scope.Thread)
+	public static class Uncached {
+		@Setup(Level.Invocation)
+		public void clear() {
+			DayCache.shared().clear();
+		}
+	}
+
+	// The first month is calculated once, so it is cached and its snapshot is ready
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SessionSnapshot.write(calculator.calculateMonth(AlmanacBenchmark.FIRST_DATE, AlmanacBenchmark.LOCATION), out);
+		snapshot = out.toByteArray();
+	}
+
+	// Everything setMonth needs for the grid and popups of one month, a different month each time
+	@Benchmark
+	public void month(Uncached uncached, Blackhole blackhole) {
+		populate(calculator.calculateMonth(AlmanacBenchmark.FIRST_DATE.plusMonths(op++ % 120), AlmanacBenchmark.LOCATION), blackhole);
+	}
+
+	@Benchmark
+	public void monthCached(Blackhole blackhole) {
+		populate(calculator.calculateMonth(AlmanacBenchmark.FIRST_DATE, AlmanacBenchmark.LOCATION), blackhole);
+	}
+
+	// What has to happen before the first frame: the last session's month read back from its snapshot and
+	// every value the grid shows read from it
+	@Benchmark
+	public void startupSnapshot(Blackhole blackhole) throws IOException {
+		populate(SessionSnapshot.read(new ByteArrayInputStream(snapshot)), blackhole);
+	}
+
+	// A year of CSV, done month by month on this thread so its allocation is counted
+	@Benchmark
+	public void exportYear(Uncached uncached) throws IOException {
+		Writer out = new NullWriter();
+		AlmanacExporter.writeHeader(out, false);
+		LocalDate year = AlmanacBenchmark.FIRST_DATE.plusYears(op++ % 10);
+		for (int month = 0; month < 12; month++)
+			AlmanacExporter.writeRows(out, calculator.calculateMonth(year.plusMonths(month), AlmanacBenchmark.LOCATION), false);
+	}
+
+	// Reads every value the month grid and the day popups display
+	private static void populate(RangeResult result, Blackhole blackhole) {
+		for (int day = 0; day < result.size(); day++) {
+			blackhole.consume(result.getMoonPhase(day));
+			blackhole.consume(result.getSunriseTime(day));
+			blackhole.consume(result.getSunsetTime(day));
+			blackhole.consume(result.getMoonriseTime(day));
+			blackhole.consume(result.getMoonsetTime(day));
+			blackhole.consume(result.getNextSolarEclipse(day));
+			blackhole.consume(result.getNextLunarEclipse(day));
+		}
+	}
+
+	// Throws away everything written so exporting measures calculation and formatting only
+	private static final class NullWriter extends Writer {
+		@Override
+		public void write(char[] cbuf, int off, int len) {}
+
+		@Override
+		public void write(String str) {}
+
+		@Override
+		public void flush() {}
+
+		@Override
+		public void close() {}
+	}
+}
@@ -0,0 +1,72 @@
+package pkg;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * JMH benchmarks for each SwissEphDate method the calendar uses
+ * Each invocation moves on a day and the ones that calculate clear the DayCache first, so nothing is answered
+ * from a cache, the dates cycle through ten years
+ * Forks run with the AlmanacStore turned off for the same reason, see AlmanacBenchmark for running them
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dcalendar.store=false")
+public class SwissEphDateBenchmark {
+	private int op;
+
+	// Clears the DayCache before every invocation that uses it
+	@State(Scope.Thread)
+	public static class Uncached {
+		@Setup(Level.Invocation)
+		public void clear() {
+			DayCache.shared().clear();
+		}
+	}
+
+	private SwissEphDate next() {
+		return new SwissEphDate(AlmanacBenchmark.FIRST_DATE.plusDays(op++ % 3650), AlmanacBenchmark.LOCATION);
+	}
+
+	@Benchmark
+	public String getMoonPhase(Uncached uncached) { return next().getMoonPhase(); }
+
+	@Benchmark
+	public String getSunriseTime(Uncached uncached) { return next().getSunriseTime(); }
+
+	@Benchmark
+	public String getSunsetTime(Uncached uncached) { return next().getSunsetTime(); }
+
+	@Benchmark
+	public String getMoonriseTime(Uncached uncached) { return next().getMoonriseTime(); }
+
+	@Benchmark
+	public String getMoonsetTime(Uncached uncached) { return next().getMoonsetTime(); }
+
+	@Benchmark
+	public LocalDate getNextSolarEclipse(Uncached uncached) { return next().getNextSolarEclipse(); }
+
+	@Benchmark
+	public LocalDate getNextLunarEclipse(Uncached uncached) { return next().getNextLunarEclipse(); }
+
+	@Benchmark
+	public int daysInMonth() { return next().daysInMonth(); }
+
+	@Benchmark
+	public SwissEphDate anotherDate() { return next().anotherDate(1); }
+}
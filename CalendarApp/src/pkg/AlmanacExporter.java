@@ -0,0 +1,199 @@
+package pkg;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * Exports almanac data for any date range and any number of locations as CSV
+ * The range is split into month sized chunks which are calculated in parallel, but written to the
+ * output strictly in order as they finish, with only a few chunks in flight so memory use stays bounded
+ * Can be run without the GUI for batch jobs, see main, and an exporter is meant to be used for a single export
+ */
+
+public class AlmanacExporter {
+	// Told how many days have been written out of the total
+	public interface ProgressListener {
+		void progress(long daysWritten, long totalDays);
+	}
+
+	private final RangeCalculator calculator;
+	private final int threads;
+	private final AtomicBoolean cancelled = new AtomicBoolean();
+
+	public AlmanacExporter(RangeCalculator calculator) {
+		this(calculator, Runtime.getRuntime().availableProcessors());
+	}
+
+	public AlmanacExporter(RangeCalculator calculator, int threads) {
+		this.calculator = calculator;
+		this.threads = threads;
+	}
+
+	// Stops a running export, export() then throws a CancellationException
+	public void cancel() {
+		cancelled.set(true);
+	}
+
+	// Writes every day from start to end (inclusive) for each location, locations one after another
+	public void export(LocalDate start, LocalDate end, List<GeoLocation> locations, Writer out, ProgressListener listener)
+			throws IOException, InterruptedException {
+		boolean withLocation = locations.size() > 1;
+		long totalDays = (ChronoUnit.DAYS.between(start, end) + 1) * locations.size();
+		long written = 0;
+
+		writeHeader(out, withLocation);
+
+		// Chunks are a month at most so each one is a cheap independent RangeCalculator call
+		List<Chunk> chunks = new ArrayList<>();
+		for (GeoLocation location : locations)
+			for (LocalDate from = start; !from.isAfter(end); from = from.plusMonths(1).withDayOfMonth(1)) {
+				LocalDate to = from.withDayOfMonth(from.lengthOfMonth());
+				chunks.add(new Chunk(from, to.isAfter(end) ? end : to, location));
+			}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "almanac-export");
+			thread.setDaemon(true);
+			return thread;
+		});
+		Deque<Future<RangeResult>> inFlight = new ArrayDeque<>();
+		int next = 0;
+		try {
+			while (next < chunks.size() || !inFlight.isEmpty()) {
+				// Keep a couple of chunks per thread queued, no more
+				while (next < chunks.size() && inFlight.size() < threads * 2) {
+					Chunk chunk = chunks.get(next++);
+					inFlight.add(pool.submit(() -> calculator.calculate(chunk.from, chunk.to, chunk.location)));
+				}
+
+				RangeResult result = inFlight.poll().get();
+				if (cancelled.get())
+					throw new CancellationException("Export cancelled");
+
+				writeRows(out, result, withLocation);
+				written += result.size();
+				if (listener != null)
+					listener.progress(written, totalDays);
+			}
+			out.flush();
+		} catch (ExecutionException e) {
+			throw new IOException("Calculation failed: " + e.getCause(), e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	// *** CSV format, shared with the month export in the GUI
+
+	public static void writeHeader(Writer out, boolean withLocation) throws IOException {
+		if (withLocation)
+			out.write("Longitude,Latitude,Elevation,");
+		out.write("Date,SunriseTime,SunsetTime,MoonriseTime,MoonsetTime,MoonPhase,NextSolarDate,NextLunarDate,SolarNoon,DayLength");
+		for (DaySummary.Twilight twilight : DaySummary.Twilight.values())
+			out.write("," + twilight + "Dawn," + twilight + "Dusk");
+		out.write('\n');
+	}
+
+	public static void writeRows(Writer out, RangeResult result, boolean withLocation) throws IOException {
+		writeRows(out, result, 0, result.size(), withLocation);
+	}
+
+	// Only the days from index first up to (not including) last
+	public static void writeRows(Writer out, RangeResult result, int first, int last, boolean withLocation) throws IOException {
+		for (int day = first; day < last; day++) {
+			if (withLocation)
+				out.write(result.getLocation() + ",");
+			out.write(result.getDate(day).toString());
+			out.write(',');
+			out.write(result.getSunriseTime(day));
+			out.write(',');
+			out.write(result.getSunsetTime(day));
+			out.write(',');
+			out.write(result.getMoonriseTime(day));
+			out.write(',');
+			out.write(result.getMoonsetTime(day));
+			out.write(',');
+			out.write(result.getMoonPhase(day).toString());
+			out.write(',');
+			out.write(result.getNextSolarEclipse(day).toString());
+			out.write(',');
+			out.write(result.getNextLunarEclipse(day).toString());
+			out.write(',');
+			out.write(result.getSolarNoonTime(day));
+			out.write(',');
+			out.write(result.getDayLength(day));
+			for (DaySummary.Twilight twilight : DaySummary.Twilight.values()) {
+				out.write(',');
+				out.write(result.getDawnTime(twilight, day));
+				out.write(',');
+				out.write(result.getDuskTime(twilight, day));
+			}
+			out.write('\n');
+		}
+	}
+
+	private static class Chunk {
+		final LocalDate from;
+		final LocalDate to;
+		final GeoLocation location;
+
+		Chunk(LocalDate from, LocalDate to, GeoLocation location) {
+			this.from = from;
+			this.to = to;
+			this.location = location;
+		}
+	}
+
+	// *** Headless batch mode
+	// Usage: AlmanacExporter <start yyyy-mm-dd> <end yyyy-mm-dd> <output.csv> <longitude,latitude,elevation[,time zone]> ...
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.err.println("Usage: AlmanacExporter <start yyyy-mm-dd> <end yyyy-mm-dd> <output.csv> <longitude,latitude,elevation[,time zone]> ...");
+			System.exit(1);
+		}
+		LocalDate start = LocalDate.parse(args[0]);
+		LocalDate end = LocalDate.parse(args[1]);
+		List<GeoLocation> locations = new ArrayList<>();
+		for (int i = 3; i < args.length; i++) {
+			String[] parts = args[i].split(",");
+			double longitude = Double.parseDouble(parts[0]);
+			locations.add(new GeoLocation(longitude, Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+					parts.length > 3 ? ZoneId.of(parts[3]) : GeoLocation.defaultZone(longitude)));
+		}
+
+		long begin = System.nanoTime();
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(args[2]), StandardCharsets.UTF_8))) {
+			new AlmanacExporter(new RangeCalculator()).export(start, end, locations, out, new ProgressListener() {
+				int lastPercent = -1;
+
+				@Override
+				public void progress(long daysWritten, long totalDays) {
+					int percent = (int) (daysWritten * 100 / totalDays);
+					if (percent != lastPercent) {
+						lastPercent = percent;
+						System.err.println(percent + "% (" + daysWritten + "/" + totalDays + " days)");
+					}
+				}
+			});
+		}
+		AlmanacStore.flushAll();
+		System.err.println("Wrote " + args[2] + " in " + (System.nanoTime() - begin) / 1000000 + "ms");
+	}
+}
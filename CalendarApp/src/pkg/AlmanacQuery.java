@@ -0,0 +1,136 @@
+package pkg;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Finds the days of a DayIndex that match a DayPredicate, eg. every full moon on a weekend from 2025 to 2040
+ * A scan is split into blocks of BLOCK_DAYS that fork / join runs in parallel, and a first match query stops
+ * every block as soon as an earlier day has matched, so it looks at little more than the days up to that match
+ * findNext doesn't need an index built ahead, it indexes a year at a time from a date on and stops at the first
+ * year with a match, so the next full moon on a weekend doesn't calculate decades it would never look at
+ */
+
+public class AlmanacQuery {
+	static final int BLOCK_DAYS = 1024; // days per fork / join leaf
+	static final int SEARCH_YEARS = 1; // indexed at a time by findNext
+	static final LocalDate LAST_DAY = LocalDate.of(2100, 12, 31); // the calendar only supports the years 1900 - 2100
+
+	private final DayIndex index;
+	private final ForkJoinPool pool;
+
+	public AlmanacQuery(DayIndex index) {
+		this(index, ForkJoinPool.commonPool());
+	}
+
+	public AlmanacQuery(DayIndex index, ForkJoinPool pool) {
+		this.index = index;
+		this.pool = pool;
+	}
+
+	public DayIndex getIndex() { return index; }
+
+	// Every matching date in order
+	public List<LocalDate> findAll(DayPredicate predicate) {
+		boolean[] matches = matches(predicate);
+		List<LocalDate> dates = new ArrayList<>();
+		for (int day = 0; day < matches.length; day++)
+			if (matches[day])
+				dates.add(index.getDate(day));
+		return dates;
+	}
+
+	public int count(DayPredicate predicate) {
+		int count = 0;
+		for (boolean match : matches(predicate))
+			if (match)
+				count++;
+		return count;
+	}
+
+	// Whether each day of the index matches, indexed by day
+	public boolean[] matches(DayPredicate predicate) {
+		boolean[] matches = new boolean[index.size()];
+		pool.invoke(new Scan(predicate, matches, null, 0, index.size()));
+		return matches;
+	}
+
+	// The first matching date, null if there is none
+	public LocalDate findFirst(DayPredicate predicate) {
+		return findFirst(predicate, index.getStart());
+	}
+
+	// The first matching date on or after from, null if there is none
+	public LocalDate findFirst(DayPredicate predicate, LocalDate from) {
+		if (from.isAfter(index.getEnd()))
+			return null;
+		int first = Math.max(0, index.indexOf(from));
+		AtomicInteger found = new AtomicInteger(index.size());
+		pool.invoke(new Scan(predicate, null, found, first, index.size()));
+		return found.get() < index.size() ? index.getDate(found.get()) : null;
+	}
+
+	// Splits its days in blocks until one is left, which it scans, either marking every match or, with found set,
+	// lowering found to its first match and giving up once found is before the day it is at
+	private class Scan extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final DayPredicate predicate;
+		private final boolean[] matches;
+		private final AtomicInteger found;
+		private final int first;
+		private final int last; // exclusive
+
+		Scan(DayPredicate predicate, boolean[] matches, AtomicInteger found, int first, int last) {
+			this.predicate = predicate;
+			this.matches = matches;
+			this.found = found;
+			this.first = first;
+			this.last = last;
+		}
+
+		@Override
+		protected void compute() {
+			if (found != null && found.get() <= first)
+				return;
+			if (last - first > BLOCK_DAYS) {
+				int middle = (first + last) >>> 1;
+				invokeAll(new Scan(predicate, matches, found, first, middle), new Scan(predicate, matches, found, middle, last));
+				return;
+			}
+
+			if (found == null) {
+				for (int day = first; day < last; day++)
+					matches[day] = predicate.test(index, day);
+				return;
+			}
+			for (int day = first; day < last && day < found.get(); day++) {
+				if (predicate.test(index, day)) {
+					found.accumulateAndGet(day, Math::min);
+					return;
+				}
+			}
+		}
+	}
+
+	// *** Searching without an index
+
+	// The first matching date on or after from at the location, indexing SEARCH_YEARS at a time, null if there is none up to 2100
+	// If the calling thread is interrupted the search stops with a CancellationException
+	public static LocalDate findNext(RangeCalculator calculator, GeoLocation location, LocalDate from, DayPredicate predicate) {
+		for (LocalDate start = from; !start.isAfter(LAST_DAY); start = start.plusYears(SEARCH_YEARS)) {
+			LocalDate end = start.plusYears(SEARCH_YEARS).minusDays(1);
+			DayIndex index = DayIndex.build(calculator, start, end.isAfter(LAST_DAY) ? LAST_DAY : end, location);
+			LocalDate match = new AlmanacQuery(index).findFirst(predicate);
+			if (match != null)
+				return match;
+			if (Thread.currentThread().isInterrupted())
+				throw new CancellationException("Search cancelled");
+		}
+		return null;
+	}
+}
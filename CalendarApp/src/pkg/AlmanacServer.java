@@ -0,0 +1,325 @@
+package pkg;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/*
+ * Serves the calendar's almanac data over HTTP for other tools, no GUI needed
+ *   GET /day?date=2021-10-13&lon=-119.496&lat=49.803[&elev=334][&tz=America/Vancouver][&format=json|csv]
+ *   GET /month?month=2021-10&lon=...&lat=...
+ *   GET /range?start=2021-01-01&end=2030-12-31&lon=...&lat=...
+ *   GET /ics?start=2021-01-01&end=2030-12-31&lon=...&lat=...[&sun=true] an iCalendar feed, see IcsExporter
+ * Days and times are local to tz, which defaults to the whole hour offset of the longitude
+ * Ranges are worked out a month at a time, requests asking for the same month at the same location at the
+ * same time share one calculation, and rows are streamed out month by month so long ranges aren't held in memory
+ * Nothing is written to the AlmanacStore, any location can be asked for and each would get its own file on disk
+ * Only listens on the loopback address unless a host is given, see main
+ */
+
+public class AlmanacServer {
+	public static final int DEFAULT_PORT = 8470;
+	public static final int MAX_REQUESTS = 16; // handled at once, more connections wait for a thread
+
+	private final HttpServer server;
+	private final RangeCalculator calculator;
+	private final ExecutorService requests;
+	private final ExecutorService calculations;
+	private final int threads;
+
+	// Months being calculated right now, a request for one of these waits on the same future
+	private final Map<MonthKey, CompletableFuture<RangeResult>> inFlight = new ConcurrentHashMap<>();
+
+	public AlmanacServer(InetSocketAddress address, RangeCalculator calculator) throws IOException {
+		this.calculator = calculator;
+		this.threads = Runtime.getRuntime().availableProcessors();
+		// Calculations are cpu bound and get one per core, requests mostly wait on them but each keeps a couple of
+		// months per core calculating ahead, so capping the requests is what bounds how many months are held at once
+		requests = Executors.newFixedThreadPool(MAX_REQUESTS, daemon("almanac-request"));
+		calculations = Executors.newFixedThreadPool(threads, daemon("almanac-calculation"));
+
+		server = HttpServer.create(address, 0);
+		server.setExecutor(requests);
+		server.createContext("/day", exchange -> handle(exchange, Endpoint.DAY));
+		server.createContext("/month", exchange -> handle(exchange, Endpoint.MONTH));
+		server.createContext("/range", exchange -> handle(exchange, Endpoint.RANGE));
+		server.createContext("/ics", exchange -> handle(exchange, Endpoint.ICS));
+	}
+
+	private enum Endpoint { DAY, MONTH, RANGE, ICS }
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		requests.shutdownNow();
+		calculations.shutdownNow();
+	}
+
+	public InetSocketAddress getAddress() { return server.getAddress(); }
+
+	// *** Requests
+
+	private void handle(HttpExchange exchange, Endpoint endpoint) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				sendError(exchange, 405, "Only GET is supported");
+				exchange.close();
+				return;
+			}
+			Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+			double longitude = number(query, "lon", null, -180, 180);
+			String zone = query.get("tz");
+			GeoLocation location = new GeoLocation(longitude, number(query, "lat", null, -90, 90), number(query, "elev", 0.0, -500, 10000),
+					zone == null ? GeoLocation.defaultZone(longitude) : ZoneId.of(zone));
+			boolean json = !"csv".equals(query.getOrDefault("format", "json"));
+
+			LocalDate start, end;
+			switch (endpoint) {
+			case DAY:
+				start = end = date(query, "date");
+				break;
+			case MONTH:
+				YearMonth month = YearMonth.parse(required(query, "month"));
+				start = month.atDay(1);
+				end = month.atEndOfMonth();
+				break;
+			default:
+				start = date(query, "start");
+				end = date(query, "end");
+			}
+			if (end.isBefore(start))
+				throw new IllegalArgumentException("end is before start");
+			if (start.getYear() < 1900 || end.getYear() > 2100)
+				throw new IllegalArgumentException("Only the years 1900 - 2100 are supported");
+
+			if (endpoint == Endpoint.ICS) {
+				exchange.getResponseHeaders().set("Content-Type", "text/calendar; charset=utf-8");
+				exchange.sendResponseHeaders(200, 0); // events go out a chunk at a time
+				Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+				new IcsExporter(location, "true".equals(query.get("sun"))).export(start, end, out, null);
+				out.close();
+			} else {
+				stream(exchange, start, end, location, json, endpoint == Endpoint.DAY);
+			}
+		} catch (IllegalArgumentException | DateTimeException e) {
+			sendError(exchange, 400, e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failed(exchange, e);
+		} catch (ExecutionException e) {
+			failed(exchange, e.getCause());
+		}
+		// Not in a finally, closing the exchange ends the chunked response as if it was complete
+		exchange.close();
+	}
+
+	// Sends a 500 if the headers haven't gone out yet, otherwise throws so the server drops the connection
+	// without the last chunk and the client sees the response is incomplete instead of a short 200
+	private static void failed(HttpExchange exchange, Throwable cause) throws IOException {
+		System.out.println("Almanac request failed: " + cause);
+		if (exchange.getResponseCode() < 0)
+			sendError(exchange, 500, "Calculation failed");
+		else
+			throw new IOException("Almanac request failed after the headers were sent", cause);
+	}
+
+	// Writes the range month by month in order, keeping a couple of months per core calculating ahead
+	// The headers only go out once the first month is in, so a range that fails straight away still gets a 500
+	private void stream(HttpExchange exchange, LocalDate start, LocalDate end, GeoLocation location, boolean json, boolean single)
+			throws IOException, InterruptedException, ExecutionException {
+		Deque<CompletableFuture<RangeResult>> ahead = new ArrayDeque<>();
+		YearMonth next = YearMonth.from(start), last = YearMonth.from(end);
+		Writer out = null;
+		boolean first = true;
+		while (!next.isAfter(last) || !ahead.isEmpty()) {
+			while (!next.isAfter(last) && ahead.size() < threads * 2) {
+				ahead.add(month(next, location));
+				next = next.plusMonths(1);
+			}
+
+			RangeResult result = ahead.poll().get();
+			if (out == null) {
+				exchange.getResponseHeaders().set("Content-Type", json ? "application/json; charset=utf-8" : "text/csv; charset=utf-8");
+				exchange.sendResponseHeaders(200, 0); // length 0 means chunked, rows go out as months finish
+				out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+				if (json && !single)
+					out.write('[');
+				else if (!json)
+					AlmanacExporter.writeHeader(out, false);
+			}
+			int from = Math.max(0, result.indexOf(start));
+			int to = result.getEnd().isAfter(end) ? result.indexOf(end) + 1 : result.size();
+			if (json) {
+				for (int day = from; day < to; day++) {
+					if (!first)
+						out.write(',');
+					writeJson(out, result, day);
+					first = false;
+				}
+			} else {
+				AlmanacExporter.writeRows(out, result, from, to, false);
+			}
+			out.flush();
+		}
+		if (json && !single)
+			out.write(']');
+		out.close(); // only on success, see failed
+	}
+
+	// The month's calculation, started unless the same month at the same location is already being calculated
+	private CompletableFuture<RangeResult> month(YearMonth month, GeoLocation location) {
+		MonthKey key = new MonthKey(month, location);
+		CompletableFuture<RangeResult> future = new CompletableFuture<>();
+		CompletableFuture<RangeResult> existing = inFlight.putIfAbsent(key, future);
+		if (existing != null)
+			return existing;
+
+		calculations.execute(() -> {
+			try {
+				future.complete(calculator.calculate(month.atDay(1), month.atEndOfMonth(), location));
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			} finally {
+				// Once done the days are in the DayCache and AlmanacStore, later requests read them from there
+				inFlight.remove(key, future);
+			}
+		});
+		return future;
+	}
+
+	private static void writeJson(Writer out, RangeResult result, int day) throws IOException {
+		out.write("{\"date\":\"" + result.getDate(day)
+				+ "\",\"sunrise\":\"" + result.getSunriseTime(day)
+				+ "\",\"sunset\":\"" + result.getSunsetTime(day)
+				+ "\",\"moonrise\":\"" + result.getMoonriseTime(day)
+				+ "\",\"moonset\":\"" + result.getMoonsetTime(day)
+				+ "\",\"moonPhase\":\"" + result.getMoonPhase(day)
+				+ "\",\"illumination\":" + result.getMoonPhasePercent(day)
+				+ ",\"nextSolarEclipse\":\"" + result.getNextSolarEclipse(day)
+				+ "\",\"nextLunarEclipse\":\"" + result.getNextLunarEclipse(day)
+				+ "\",\"solarNoon\":\"" + result.getSolarNoonTime(day)
+				+ "\",\"dayLength\":\"" + result.getDayLength(day) + "\"");
+		// Same columns as the CSV, eg. civilDawn and civilDusk
+		for (DaySummary.Twilight twilight : DaySummary.Twilight.values()) {
+			String name = twilight.name().toLowerCase();
+			out.write(",\"" + name + "Dawn\":\"" + result.getDawnTime(twilight, day)
+					+ "\",\"" + name + "Dusk\":\"" + result.getDuskTime(twilight, day) + "\"");
+		}
+		out.write('}');
+	}
+
+	private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+		byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		exchange.getResponseBody().write(body);
+	}
+
+	// *** Query parameters
+
+	private static Map<String, String> parseQuery(String query) throws IOException {
+		Map<String, String> params = new HashMap<>();
+		if (query == null)
+			return params;
+		for (String pair : query.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq > 0)
+				params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+		}
+		return params;
+	}
+
+	private static String required(Map<String, String> query, String name) {
+		String value = query.get(name);
+		if (value == null)
+			throw new IllegalArgumentException("Missing parameter " + name);
+		return value;
+	}
+
+	private static LocalDate date(Map<String, String> query, String name) {
+		return LocalDate.parse(required(query, name));
+	}
+
+	// A number parameter from min to max, or the default when it is missing and a default is given
+	private static double number(Map<String, String> query, String name, Double defaultValue, double min, double max) {
+		String value = query.get(name);
+		if (value == null && defaultValue != null)
+			return defaultValue;
+		double number;
+		try {
+			number = Double.parseDouble(required(query, name));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Parameter " + name + " is not a number");
+		}
+		// Written so NaN fails as well, infinities are outside every range
+		if (!(number >= min && number <= max))
+			throw new IllegalArgumentException("Parameter " + name + " must be from " + min + " to " + max);
+		return number;
+	}
+
+	private static ThreadFactory daemon(String name) {
+		return runnable -> {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	private static final class MonthKey {
+		final YearMonth month;
+		final GeoLocation location;
+
+		MonthKey(YearMonth month, GeoLocation location) {
+			this.month = month;
+			this.location = location;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof MonthKey))
+				return false;
+			MonthKey other = (MonthKey) o;
+			return month.equals(other.month) && location.equals(other.location);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(month, location);
+		}
+	}
+
+	// Usage: AlmanacServer [port] [host], listens on localhost:8470 by default
+	public static void main(String[] args) throws Exception {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		InetAddress host = args.length > 1 ? InetAddress.getByName(args[1]) : InetAddress.getLoopbackAddress();
+
+		AlmanacServer server = new AlmanacServer(new InetSocketAddress(host, port), new RangeCalculator(EphemerisEngine.shared(), DayCache.shared(), false));
+		server.start();
+		System.out.println("Almanac server listening on http://" + host.getHostAddress() + ":" + server.getAddress().getPort());
+	}
+}
@@ -0,0 +1,318 @@
+package pkg;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.VarHandle;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.zone.ZoneRulesException;
+import java.time.zone.ZoneRulesProvider;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Almanac file on disk for one location so days calculated in an earlier run never have to be calculated again
+ * The file is memory mapped and laid out in columns, every column has one fixed width slot per day from
+ * 1900-01-01 to 2100-12-31, so a day is found by its index alone and reading it allocates nothing
+ * Days are written as they are calculated, slots that were never written are left as holes in the file
+ * A day is published by its flag, written after its columns behind a release fence and read by hasDay or hasEclipses
+ * before an acquire fence, so readers never take a lock
+ * Days are local days in the location's time zone, so each zone has its own file
+ * The header records the file version, ephemeris flags, location, time zone and the version of the zone's rules
+ * the days were converted with, a file that doesn't match is rebuilt
+ * Only the MAX_OPEN stores used most recently are kept open, files are opened and flushed on a thread of their own
+ * since a file channel is closed when the thread using it is interrupted, eg. by a cancelled month load
+ *
+ * Layout: 256 byte header, then the columns one after another
+ *   flags (byte) illumination, sunrise, sunset, moonrise, moonset, next solar eclipse, next lunar eclipse (double) phase (byte)
+ *   solar noon, day length (double) then dawn and dusk (double) for each DaySummary.Twilight
+ * Files live in ~/.calendarapp/almanac unless -Dcalendar.store.dir is set, -Dcalendar.store=false turns the store off
+ */
+
+public class AlmanacStore {
+	static final int MAGIC = 0x414C4D4E; // "ALMN"
+	static final int VERSION = 5; // 2: phases from the LunationTable, 3: local days in the location's time zone, 4: twilight,
+	// 5: zone id and rules version in the header
+	static final int HEADER_SIZE = 256;
+	static final int MAX_OPEN = 8;
+	static final LocalDate FIRST_DAY = LocalDate.of(1900, 1, 1);
+	static final LocalDate LAST_DAY = LocalDate.of(2100, 12, 31);
+	static final int CAPACITY = (int) (LAST_DAY.toEpochDay() - FIRST_DAY.toEpochDay() + 1);
+	static final int TWILIGHTS = DaySummary.Twilight.values().length;
+	static final int RECORD_SIZE = 1 + 7 * 8 + 1 + (2 + 2 * TWILIGHTS) * 8; // bytes used by one day across every column
+
+	// Bits in the flags column
+	static final byte HAS_DAY = 1; // moon and rise / set values are written
+	static final byte HAS_ECLIPSES = 2; // next eclipse values are written
+
+	// Column offsets
+	private static final int FLAGS = HEADER_SIZE;
+	private static final int ILLUMINATION = FLAGS + CAPACITY;
+	private static final int SUNRISE = ILLUMINATION + CAPACITY * 8;
+	private static final int SUNSET = SUNRISE + CAPACITY * 8;
+	private static final int MOONRISE = SUNSET + CAPACITY * 8;
+	private static final int MOONSET = MOONRISE + CAPACITY * 8;
+	private static final int NEXT_SOLAR = MOONSET + CAPACITY * 8;
+	private static final int NEXT_LUNAR = NEXT_SOLAR + CAPACITY * 8;
+	private static final int PHASE = NEXT_LUNAR + CAPACITY * 8;
+	private static final int SOLAR_NOON = PHASE + CAPACITY;
+	private static final int DAY_LENGTH = SOLAR_NOON + CAPACITY * 8;
+	private static final int DAWN = DAY_LENGTH + CAPACITY * 8; // one column for each twilight
+	private static final int DUSK = DAWN + TWILIGHTS * CAPACITY * 8;
+	private static final int FILE_SIZE = DUSK + TWILIGHTS * CAPACITY * 8;
+
+	private static final boolean ENABLED = !"false".equals(System.getProperty("calendar.store"));
+	// Never interrupted, unlike the loaders and prefetchers that ask for stores
+	private static final ExecutorService OPENER = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "almanac-store");
+		thread.setDaemon(true);
+		return thread;
+	});
+	// Access ordered so the least recently used store is the one closed, it is flushed but left mapped as a
+	// caller may still be using it, the mapping goes once nothing refers to it
+	private static final Map<GeoLocation, AlmanacStore> OPEN = new LinkedHashMap<GeoLocation, AlmanacStore>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<GeoLocation, AlmanacStore> eldest) {
+			if (size() <= MAX_OPEN)
+				return false;
+			MappedByteBuffer evicted = eldest.getValue().buffer;
+			OPENER.execute(evicted::force);
+			return true;
+		}
+	};
+
+	private final GeoLocation location;
+	private final OffsetTable offsets; // every offset of the zone over the years the store covers
+	private final MappedByteBuffer buffer;
+
+	private AlmanacStore(GeoLocation location, MappedByteBuffer buffer) {
+		this.location = location;
+		this.offsets = OffsetTable.covering(location.getZone(), firstJulianDay() - 1, firstJulianDay() + CAPACITY + 1);
+		this.buffer = buffer;
+	}
+
+	private static double firstJulianDay() {
+		return EphemerisEngine.julianDay(FIRST_DAY.getYear(), FIRST_DAY.getMonthValue(), FIRST_DAY.getDayOfMonth());
+	}
+
+	// Returns the store for a location, opening or building its file the first time, or null if the store is
+	// turned off or the file can't be used, callers then simply calculate everything
+	public static AlmanacStore forLocation(GeoLocation location) {
+		if (!ENABLED)
+			return null;
+		synchronized (OPEN) {
+			AlmanacStore store = OPEN.get(location);
+			if (store != null)
+				return store;
+			Future<AlmanacStore> opened = OPENER.submit(() -> open(location, new File(directory(), fileName(location))));
+			// Waits through interrupts, the caller sees its interrupt again once the store is open
+			boolean interrupted = false;
+			try {
+				while (true) {
+					try {
+						store = opened.get();
+						break;
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			} catch (ExecutionException e) {
+				System.out.println("Almanac store unavailable for " + location + ": " + e.getCause().getMessage());
+				return null;
+			} finally {
+				if (interrupted)
+					Thread.currentThread().interrupt();
+			}
+			OPEN.put(location, store);
+			return store;
+		}
+	}
+
+	static File directory() {
+		String dir = System.getProperty("calendar.store.dir");
+		return dir != null ? new File(dir) : new File(System.getProperty("user.home"), ".calendarapp/almanac");
+	}
+
+	// Exact bits of the position so two nearby locations never share a file, and the zone id eg. America-Vancouver
+	static String fileName(GeoLocation location) {
+		return "almanac-" + Long.toHexString(Double.doubleToLongBits(location.getLongitude())) + "-"
+				+ Long.toHexString(Double.doubleToLongBits(location.getLatitude())) + "-"
+				+ Long.toHexString(Double.doubleToLongBits(location.getElevation())) + "-"
+				+ location.getZone().getId().replaceAll("[^A-Za-z0-9+_-]", "-") + ".bin";
+	}
+
+	static AlmanacStore open(GeoLocation location, File file) throws IOException {
+		File parent = file.getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+			throw new IOException("Could not create " + parent);
+
+		String rules = rulesVersion(location.getZone());
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			boolean fresh = raf.length() != FILE_SIZE;
+			if (!fresh) {
+				raf.seek(0);
+				try {
+					fresh = raf.readInt() != MAGIC || raf.readInt() != VERSION || raf.readInt() != CalculationProfile.active().getFlags()
+							|| raf.readInt() != RECORD_SIZE || raf.readLong() != FIRST_DAY.toEpochDay() || raf.readInt() != CAPACITY
+							|| raf.readDouble() != location.getLongitude() || raf.readDouble() != location.getLatitude()
+							|| raf.readDouble() != location.getElevation() || !raf.readUTF().equals(location.getZone().getId())
+							|| !raf.readUTF().equals(rules);
+				} catch (IOException e) {
+					fresh = true; // a header that doesn't even read back, eg. a zone id cut short
+				}
+			}
+			// Missing or stale, every day is dropped and the header written again
+			if (fresh) {
+				raf.setLength(0);
+				raf.setLength(FILE_SIZE);
+				raf.seek(0);
+				raf.writeInt(MAGIC);
+				raf.writeInt(VERSION);
+				raf.writeInt(CalculationProfile.active().getFlags());
+				raf.writeInt(RECORD_SIZE);
+				raf.writeLong(FIRST_DAY.toEpochDay());
+				raf.writeInt(CAPACITY);
+				raf.writeDouble(location.getLongitude());
+				raf.writeDouble(location.getLatitude());
+				raf.writeDouble(location.getElevation());
+				raf.writeUTF(location.getZone().getId());
+				raf.writeUTF(rules);
+				if (raf.getFilePointer() > HEADER_SIZE)
+					throw new IOException("Zone id " + location.getZone().getId() + " doesn't fit in the header");
+			}
+			// The mapping stays valid after the file is closed
+			return new AlmanacStore(location, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE));
+		}
+	}
+
+	// Version of the zone's rules in the JDK eg. "2024a", a new one can move the local days, empty for fixed offsets
+	static String rulesVersion(ZoneId zone) {
+		try {
+			return ZoneRulesProvider.getVersions(zone.getId()).lastKey();
+		} catch (ZoneRulesException e) {
+			return "";
+		}
+	}
+
+	// Writes every open store's changes to disk, called when the app closes
+	public static void flushAll() {
+		List<AlmanacStore> stores;
+		synchronized (OPEN) {
+			stores = new ArrayList<>(OPEN.values());
+		}
+		for (AlmanacStore store : stores)
+			store.buffer.force();
+	}
+
+	public GeoLocation getLocation() { return location; }
+
+	// *** Reading, none of these allocate
+	// A day's columns are only read after hasDay or hasEclipses has seen its flag, the acquire fence there pairs with
+	// the release fence the writer puts before the flag, so once a flag is seen every column written with it is too
+
+	// Slot of a day or -1 if the store doesn't cover it
+	public static int index(long epochDay) {
+		long i = epochDay - FIRST_DAY.toEpochDay();
+		return i >= 0 && i < CAPACITY ? (int) i : -1;
+	}
+
+	public boolean hasDay(int index) {
+		return index >= 0 && (flags(index) & HAS_DAY) != 0;
+	}
+
+	public boolean hasEclipses(int index) {
+		return index >= 0 && (flags(index) & HAS_ECLIPSES) != 0;
+	}
+
+	private byte flags(int index) {
+		byte flags = buffer.get(FLAGS + index);
+		VarHandle.acquireFence();
+		return flags;
+	}
+
+	public double getIllumination(int index) { return buffer.getDouble(ILLUMINATION + index * 8); }
+	public double getSunrise(int index) { return buffer.getDouble(SUNRISE + index * 8); }
+	public double getSunset(int index) { return buffer.getDouble(SUNSET + index * 8); }
+	public double getMoonrise(int index) { return buffer.getDouble(MOONRISE + index * 8); }
+	public double getMoonset(int index) { return buffer.getDouble(MOONSET + index * 8); }
+	public double getNextSolarEclipse(int index) { return buffer.getDouble(NEXT_SOLAR + index * 8); }
+	public double getNextLunarEclipse(int index) { return buffer.getDouble(NEXT_LUNAR + index * 8); }
+	public byte getPhase(int index) { return buffer.get(PHASE + index); }
+	public double getSolarNoon(int index) { return buffer.getDouble(SOLAR_NOON + index * 8); }
+	public double getDayLength(int index) { return buffer.getDouble(DAY_LENGTH + index * 8); }
+	public double getDawn(int twilight, int index) { return buffer.getDouble(DAWN + (twilight * CAPACITY + index) * 8); }
+	public double getDusk(int twilight, int index) { return buffer.getDouble(DUSK + (twilight * CAPACITY + index) * 8); }
+
+	// Copies a stored day straight into a range result
+	void copyDay(int index, RangeResult result, int day) {
+		result.illumination[day] = getIllumination(index);
+		result.phase[day] = getPhase(index);
+		result.sunrise[day] = getSunrise(index);
+		result.sunset[day] = getSunset(index);
+		result.moonrise[day] = getMoonrise(index);
+		result.moonset[day] = getMoonset(index);
+		result.solarNoon[day] = getSolarNoon(index);
+		result.dayLength[day] = getDayLength(index);
+		for (int twilight = 0; twilight < TWILIGHTS; twilight++) {
+			result.dawn[twilight * result.size() + day] = getDawn(twilight, index);
+			result.dusk[twilight * result.size() + day] = getDusk(twilight, index);
+		}
+	}
+
+	// Stored day as a DaySummary, for callers that want one object per day anyway
+	public DaySummary getDaySummary(LocalDate date) {
+		int index = index(date.toEpochDay());
+		if (!hasDay(index))
+			return null;
+		double[] dawn = new double[TWILIGHTS], dusk = new double[TWILIGHTS];
+		for (int twilight = 0; twilight < TWILIGHTS; twilight++) {
+			dawn[twilight] = getDawn(twilight, index);
+			dusk[twilight] = getDusk(twilight, index);
+		}
+		return new DaySummary(date, offsets, getSunrise(index), getSunset(index), getMoonrise(index), getMoonset(index),
+				getIllumination(index), MoonPhase.values()[getPhase(index)], getSolarNoon(index), getDayLength(index), dawn, dusk);
+	}
+
+	// *** Writing, locked so two writers never lose each other's flag bits, and the columns are all written before
+	// the release fence so a reader that sees the flag never sees half a day
+
+	public synchronized void putDay(DaySummary summary) {
+		int index = index(summary.getDate().toEpochDay());
+		if (index < 0)
+			return;
+		buffer.putDouble(ILLUMINATION + index * 8, summary.getIllumination());
+		buffer.putDouble(SUNRISE + index * 8, summary.getSunrise());
+		buffer.putDouble(SUNSET + index * 8, summary.getSunset());
+		buffer.putDouble(MOONRISE + index * 8, summary.getMoonrise());
+		buffer.putDouble(MOONSET + index * 8, summary.getMoonset());
+		buffer.put(PHASE + index, (byte) summary.getMoonPhase().ordinal());
+		buffer.putDouble(SOLAR_NOON + index * 8, summary.getSolarNoon());
+		buffer.putDouble(DAY_LENGTH + index * 8, summary.getDayLength());
+		for (DaySummary.Twilight twilight : DaySummary.Twilight.values()) {
+			buffer.putDouble(DAWN + (twilight.ordinal() * CAPACITY + index) * 8, summary.getDawn(twilight));
+			buffer.putDouble(DUSK + (twilight.ordinal() * CAPACITY + index) * 8, summary.getDusk(twilight));
+		}
+		VarHandle.releaseFence();
+		buffer.put(FLAGS + index, (byte) (buffer.get(FLAGS + index) | HAS_DAY));
+	}
+
+	public synchronized void putEclipses(int index, double nextSolar, double nextLunar) {
+		if (index < 0)
+			return;
+		buffer.putDouble(NEXT_SOLAR + index * 8, nextSolar);
+		buffer.putDouble(NEXT_LUNAR + index * 8, nextLunar);
+		VarHandle.releaseFence();
+		buffer.put(FLAGS + index, (byte) (buffer.get(FLAGS + index) | HAS_ECLIPSES));
+	}
+}
@@ -0,0 +1,294 @@
+package pkg;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ * Counts and times every ephemeris call so it can be seen where calculation time goes
+ * Each operation keeps a call count, a latency histogram (p50 / p99 / max) and the bytes allocated per call,
+ * the DayCache hit rate is reported next to them
+ * Everything is published as MXBeans under "pkg:type=CalculationMetrics", printed every
+ * -Dcalendar.metrics.log seconds if that is set, and -Dcalendar.metrics=false turns recording off
+ *
+ * Call sites wrap a call like this, nothing is allocated when recording:
+ *   long start = METRICS.begin();
+ *   sw.swe_pheno(...);
+ *   METRICS.end(CalculationMetrics.Operation.MOON_PHASE, start);
+ */
+
+public final class CalculationMetrics {
+	public enum Operation {
+		MOON_PHASE("swe_pheno"),
+		RISE_SET_SWEEP("rise / set sweep"), // a RiseSetSweep over a range of days for one body
+		ECLIPSE_SEARCH("eclipse search"), // global swe_*_eclipse_when with its where / how call
+		ECLIPSE_LOCAL("eclipse local"), // swe_*_eclipse_when_loc
+		LUNATION_SEARCH("lunation search"), // a decade of the LunationTable
+		ENGINE_WAIT("engine wait"), // time spent getting a SwissEph from the EphemerisEngine
+		RANGE("range"), // a whole RangeCalculator call, everything above included
+		PLANETS("planet overview"); // a PlanetOverview for a range of days, its planet sweeps included
+
+		private final String label;
+
+		Operation(String label) {
+			this.label = label;
+		}
+
+		@Override
+		public String toString() { return label; }
+	}
+
+	// Read through JMX for each operation, times in microseconds
+	public interface OperationMXBean {
+		long getCount();
+		double getMeanMicros();
+		double getP50Micros();
+		double getP99Micros();
+		double getMaxMicros();
+		double getAllocatedBytesPerCall();
+		void reset();
+	}
+
+	public interface CacheMXBean {
+		long getHits();
+		long getMisses();
+		long getEvictions();
+		double getHitRate();
+		int getSize();
+		int getMaxSize();
+	}
+
+	private static final CalculationMetrics SHARED = new CalculationMetrics(!"false".equals(System.getProperty("calendar.metrics")));
+
+	static {
+		SHARED.register();
+		long period = Long.getLong("calendar.metrics.log", 0);
+		if (period > 0)
+			SHARED.startLogging(period);
+	}
+
+	private final boolean enabled;
+	private final Stats[] stats = new Stats[Operation.values().length];
+	private final com.sun.management.ThreadMXBean threads;
+
+	// Allocation counter at begin(), calls that record allocation don't nest so one slot per thread is enough
+	private final ThreadLocal<long[]> allocatedAtBegin = ThreadLocal.withInitial(() -> new long[1]);
+
+	public CalculationMetrics(boolean enabled) {
+		this.enabled = enabled;
+		for (Operation op : Operation.values())
+			stats[op.ordinal()] = new Stats();
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		threads = bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+				? (com.sun.management.ThreadMXBean) bean : null;
+	}
+
+	public static CalculationMetrics shared() { return SHARED; }
+
+	public boolean isEnabled() { return enabled; }
+
+	// *** Recording
+
+	// Start of a timed call, pass the result to end()
+	public long begin() {
+		if (!enabled)
+			return 0;
+		if (threads != null)
+			allocatedAtBegin.get()[0] = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		return System.nanoTime();
+	}
+
+	// End of a timed call, records its time and what it allocated
+	public void end(Operation op, long begin) {
+		if (!enabled)
+			return;
+		long nanos = System.nanoTime() - begin;
+		long bytes = threads != null ? threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedAtBegin.get()[0] : -1;
+		stats[op.ordinal()].record(nanos, bytes);
+	}
+
+	// Records time only, for operations that contain other timed calls
+	public void record(Operation op, long nanos) {
+		if (enabled)
+			stats[op.ordinal()].record(nanos, -1);
+	}
+
+	// *** Reading
+
+	public OperationMXBean get(Operation op) { return stats[op.ordinal()]; }
+
+	public void reset() {
+		for (Stats s : stats)
+			s.reset();
+		DayCache.shared().resetStatistics();
+	}
+
+	// Counts and total times at this moment, compare two to see what a user action cost
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+	public String summary() {
+		StringBuilder sb = new StringBuilder(String.format("%-16s %10s %10s %10s %10s %12s%n", "operation", "count", "p50 us", "p99 us", "max us", "bytes/call"));
+		for (Operation op : Operation.values()) {
+			Stats s = stats[op.ordinal()];
+			sb.append(String.format("%-16s %10d %10.0f %10.0f %10.0f %12.0f%n", op, s.getCount(), s.getP50Micros(), s.getP99Micros(),
+					s.getMaxMicros(), s.getAllocatedBytesPerCall()));
+		}
+		return sb.append(DayCache.shared()).toString();
+	}
+
+	// Prints the summary every period seconds on a daemon thread
+	public void startLogging(long periodSeconds) {
+		ScheduledExecutorService logger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "calculation-metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		logger.scheduleAtFixedRate(() -> System.out.println(summary()), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+	}
+
+	private void register() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			for (Operation op : Operation.values())
+				server.registerMBean(stats[op.ordinal()], new ObjectName("pkg:type=CalculationMetrics,name=" + op.name()));
+			server.registerMBean(new CacheMXBean() {
+				@Override public long getHits() { return DayCache.shared().getHits(); }
+				@Override public long getMisses() { return DayCache.shared().getMisses(); }
+				@Override public long getEvictions() { return DayCache.shared().getEvictions(); }
+				@Override public double getHitRate() { return DayCache.shared().getHitRate(); }
+				@Override public int getSize() { return DayCache.shared().size(); }
+				@Override public int getMaxSize() { return DayCache.shared().getMaxSize(); }
+			}, new ObjectName("pkg:type=CalculationMetrics,name=DayCache"));
+		} catch (JMException e) {
+			System.out.println("Calculation metrics not published over JMX: " + e.getMessage());
+		}
+	}
+
+	// *** Per operation statistics
+
+	private static final class Stats implements OperationMXBean {
+		// Log scale buckets, four per power of two so percentiles are within about 20%
+		private static final int SUB_BUCKETS = 4;
+		private final AtomicLongArray histogram = new AtomicLongArray(64 * SUB_BUCKETS);
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final AtomicLong maxNanos = new AtomicLong();
+		private final LongAdder allocatedBytes = new LongAdder();
+		private final LongAdder allocationSamples = new LongAdder();
+
+		void record(long nanos, long bytes) {
+			nanos = Math.max(nanos, 1);
+			count.increment();
+			totalNanos.add(nanos);
+			histogram.incrementAndGet(bucket(nanos));
+			long max;
+			while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos));
+			if (bytes >= 0) {
+				allocatedBytes.add(bytes);
+				allocationSamples.increment();
+			}
+		}
+
+		static int bucket(long nanos) {
+			int log2 = 63 - Long.numberOfLeadingZeros(nanos);
+			if (log2 < 2)
+				return (int) nanos;
+			return log2 * SUB_BUCKETS + (int) ((nanos >>> (log2 - 2)) & (SUB_BUCKETS - 1));
+		}
+
+		// Largest value that lands in a bucket
+		static long upperBound(int bucket) {
+			int log2 = bucket / SUB_BUCKETS;
+			if (log2 < 2)
+				return bucket;
+			return ((long) (SUB_BUCKETS + bucket % SUB_BUCKETS + 1) << (log2 - 2)) - 1;
+		}
+
+		double percentileMicros(double fraction) {
+			long total = 0;
+			for (int i = 0; i < histogram.length(); i++)
+				total += histogram.get(i);
+			if (total == 0)
+				return 0;
+			long target = (long) Math.ceil(total * fraction), seen = 0;
+			for (int i = 0; i < histogram.length(); i++) {
+				seen += histogram.get(i);
+				if (seen >= target)
+					return Math.min(upperBound(i), maxNanos.get()) / 1000.0;
+			}
+			return maxNanos.get() / 1000.0;
+		}
+
+		long getTotalNanos() { return totalNanos.sum(); }
+
+		@Override public long getCount() { return count.sum(); }
+		@Override public double getP50Micros() { return percentileMicros(0.50); }
+		@Override public double getP99Micros() { return percentileMicros(0.99); }
+		@Override public double getMaxMicros() { return maxNanos.get() / 1000.0; }
+
+		@Override
+		public double getMeanMicros() {
+			long n = count.sum();
+			return n == 0 ? 0 : totalNanos.sum() / 1000.0 / n;
+		}
+
+		@Override
+		public double getAllocatedBytesPerCall() {
+			long n = allocationSamples.sum();
+			return n == 0 ? 0 : (double) allocatedBytes.sum() / n;
+		}
+
+		@Override
+		public void reset() {
+			for (int i = 0; i < histogram.length(); i++)
+				histogram.set(i, 0);
+			count.reset();
+			totalNanos.reset();
+			maxNanos.set(0);
+			allocatedBytes.reset();
+			allocationSamples.reset();
+		}
+	}
+
+	// Counts, total times and cache lookups at one moment
+	public static final class Snapshot {
+		private final long taken = System.nanoTime();
+		private final long[] counts = new long[Operation.values().length];
+		private final long[] nanos = new long[Operation.values().length];
+		private final long cacheHits = DayCache.shared().getHits();
+		private final long cacheMisses = DayCache.shared().getMisses();
+
+		Snapshot(CalculationMetrics metrics) {
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = metrics.stats[i].getCount();
+				nanos[i] = metrics.stats[i].getTotalNanos();
+			}
+		}
+
+		public long getCount(Operation op) { return counts[op.ordinal()]; }
+		public long getNanos(Operation op) { return nanos[op.ordinal()]; }
+
+		// What happened between an earlier snapshot and this one in one line, eg.
+		// "412 ms: swe_pheno 32x 3 ms, swe_rise_trans 124x 398 ms, cache 0/31"
+		public String describeSince(Snapshot before) {
+			StringBuilder sb = new StringBuilder().append((taken - before.taken) / 1000000).append(" ms:");
+			for (Operation op : Operation.values()) {
+				long n = getCount(op) - before.getCount(op);
+				if (n > 0 && op != Operation.RANGE)
+					sb.append(' ').append(op).append(' ').append(n).append("x ")
+							.append((getNanos(op) - before.getNanos(op)) / 1000000).append(" ms,");
+			}
+			long hits = cacheHits - before.cacheHits;
+			return sb.append(" cache ").append(hits).append('/').append(hits + cacheMisses - before.cacheMisses).toString();
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package pkg;
+
+import java.io.File;
+import swisseph.*;
+
+/*
+ * Which ephemeris every calculation in the app uses, picked once at startup
+ *   FAST     the Moshier analytic ephemeris built into the library, no files and no file I/O
+ *   PRECISE  the Swiss Ephemeris data files from -Dcalendar.ephe.path (default ./ephe), opened and read
+ *            in when each SwissEph is created so the first calculation doesn't pay for it
+ *   AUTO     FAST when the accuracy asked for with -Dcalendar.accuracy (arcseconds) is no finer than Moshier
+ *            manages, otherwise PRECISE
+ * Chosen with -Dcalendar.profile=fast|precise|auto, precise by default so Moshier is only used when asked for
+ * Asking the library for the files when they aren't there makes it fall back to Moshier anyway, but only after
+ * searching the ephemeris path on every call, which roughly doubles the cost of each position, so without the
+ * files the app says so and uses FAST
+ * The profile is picked the first time it is asked for, after main has had a chance to set the properties
+ * ProfileReport compares the two over 1900 - 2100
+ */
+
+public enum CalculationProfile {
+	FAST(SweConst.SEFLG_MOSEPH),
+	PRECISE(SweConst.SEFLG_SWIEPH),
+	AUTO(0);
+
+	// Worst case of the Moshier sun and moon against the files over 1900 - 2100, the largest position difference
+	// ProfileReport finds, which is the moon's (a few arcseconds, the sun stays under one)
+	public static final double MOSHIER_ACCURACY = 3.0; // arcseconds
+
+	// Files covering 1800 - 2400, planets and sun, then the moon
+	static final String[] FILES = { "sepl_18.se1", "semo_18.se1" };
+	static final double J2000 = 2451545.0;
+
+	private final int flags;
+
+	CalculationProfile(int flags) {
+		this.flags = flags;
+	}
+
+	// Profile the app runs with, never AUTO
+	public static CalculationProfile active() { return Active.PROFILE; }
+
+	// Holds the active profile so it is only picked when first asked for, not when the class is loaded
+	private static final class Active {
+		static final CalculationProfile PROFILE = fromProperties();
+	}
+
+	// Ephemeris flag passed to every calculation, SEFLG_MOSEPH or SEFLG_SWIEPH
+	public int getFlags() { return resolve().flags; }
+
+	// FAST or PRECISE, AUTO decided for the accuracy from the properties
+	public CalculationProfile resolve() {
+		return this == AUTO ? forAccuracy(requestedAccuracy()) : this;
+	}
+
+	// FAST only when Moshier gives the accuracy (arcseconds), anything finer or not given at all needs the files
+	public static CalculationProfile forAccuracy(double arcseconds) {
+		return arcseconds >= MOSHIER_ACCURACY ? FAST : PRECISE;
+	}
+
+	// Arcseconds from -Dcalendar.accuracy, 0 when not given or not a number
+	public static double requestedAccuracy() {
+		String value = System.getProperty("calendar.accuracy");
+		if (value == null)
+			return 0;
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			System.out.println("Calendar accuracy " + value + " is not a number, using the ephemeris files");
+			return 0;
+		}
+	}
+
+	public static String ephemerisPath() {
+		return System.getProperty("calendar.ephe.path", "ephe");
+	}
+
+	// Whether every file 1900 - 2100 needs is in the directory
+	public static boolean hasFiles(String path) {
+		for (String file : FILES)
+			if (!new File(path, file).isFile())
+				return false;
+		return true;
+	}
+
+	// A SwissEph set up for the profile, for PRECISE the files are opened by calculating the sun and moon once
+	public SwissEph newSwissEph() {
+		CalculationProfile profile = resolve();
+		if (profile == FAST)
+			return new SwissEph();
+		SwissEph sw = new SwissEph(ephemerisPath());
+		double[] x = new double[6];
+		StringBuffer error = new StringBuffer();
+		sw.swe_calc_ut(J2000, SwissEphDate.SUN, profile.flags, x, error);
+		sw.swe_calc_ut(J2000, SwissEphDate.MOON, profile.flags, x, error);
+		if (error.length() > 0)
+			System.out.println("Ephemeris files not loaded, calculations fall back to Moshier: " + error);
+		return sw;
+	}
+
+	private static CalculationProfile fromProperties() {
+		String name = System.getProperty("calendar.profile", "precise");
+		CalculationProfile profile;
+		try {
+			profile = valueOf(name.toUpperCase()).resolve();
+		} catch (IllegalArgumentException e) {
+			System.out.println("Unknown calculation profile " + name + ", using precise");
+			profile = PRECISE;
+		}
+		if (profile == PRECISE && !hasFiles(ephemerisPath())) {
+			System.out.println("Ephemeris files not found in " + ephemerisPath() + ", using the Moshier ephemeris");
+			return FAST;
+		}
+		return profile;
+	}
+}
@@ -1,18 +1,33 @@
 package pkg;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.PrintWriter;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.time.DateTimeException;
 import java.time.DayOfWeek;
 import java.time.LocalDate;
+import java.time.LocalTime;
 import java.time.Month;
+import java.time.YearMonth;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
+import javafx.concurrent.Task;
 import javafx.geometry.HPos;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
@@ -21,12 +36,14 @@ import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.Button;
-import javafx.scene.control.ButtonType;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TextField;
 import javafx.scene.control.Tooltip;
 import javafx.scene.image.ImageView;
+import javafx.scene.input.KeyCode;
 import javafx.scene.layout.Border;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.BorderStroke;
@@ -51,11 +68,36 @@ public class CalendarView extends Application {
 
 	private List<TimeSlot> timeSlots = new ArrayList<>();
 	LocalDate currentDate = LocalDate.now();
+	GeoLocation location = new GeoLocation(-119.4960, 49.803, 334.0, ZoneId.of("America/Vancouver"));
+
+	// Calculations for the month on screen, the grid, popups and export all read from this
+	RangeCalculator rangeCalculator = new RangeCalculator();
+	MonthLoader monthLoader = new MonthLoader(rangeCalculator);
+	PrefetchScheduler prefetcher = new PrefetchScheduler(rangeCalculator);
+	RangeResult monthResult; // null while the month is still being calculated, or the session snapshot until it is
+
+	// Queries the grid can highlight the matching days of by name, the first one none, and the one picked
+	static final Map<String, DayPredicate> QUERIES = new LinkedHashMap<>();
+	static {
+		QUERIES.put("No highlight", null);
+		QUERIES.put("Full moons", DayPredicate.quarter(LunationTable.Quarter.FULL_MOON));
+		QUERIES.put("Full moons on a weekend", DayPredicate.quarter(LunationTable.Quarter.FULL_MOON).and(DayPredicate.weekend()));
+		QUERIES.put("New moons with sunset after 20:00", DayPredicate.quarter(LunationTable.Quarter.NEW_MOON)
+				.and(DayPredicate.after(DaySummary.Event.SUNSET, LocalTime.of(20, 0))));
+		QUERIES.put("Moonset after sunrise", DayPredicate.later(DaySummary.Event.MOONSET, DaySummary.Event.SUNRISE));
+		QUERIES.put("Eclipses", DayPredicate.solarEclipse().or(DayPredicate.lunarEclipse()));
+	}
+	DayPredicate query;
+
+	// Debug overlay with what the last month cost to calculate, toggled with F3 or on from the start with -Dcalendar.debug=true
+	Label debugOverlay = new Label();
+	String firstFrame = ""; // time to first frame, shown above the month costs
 	
 	Label month = new Label(currentDate.getMonth().toString());
 	Text longitudeText = new Text();
 	Text latitudeText = new Text();
 	Text elevationText = new Text();
+	Text zoneText = new Text();
 
 	@Override
 	public void start(Stage primaryStage) {
@@ -64,7 +106,14 @@ public class CalendarView extends Application {
 		primaryStage.setResizable(false);
 		primaryStage.sizeToScene();
 
-		setMonth(calendarView, primaryStage, currentDate, new SwissEphDate(currentDate, -119.4960, 49.803, 334.0));
+		// The last session's month is drawn from its snapshot straight away and checked by loading it again behind it
+		RangeResult snapshot = SessionSnapshot.load();
+		if (snapshot != null) {
+			currentDate = snapshot.getStart();
+			location = snapshot.getLocation();
+			month.setText(currentDate.getMonth().toString());
+		}
+		setMonth(calendarView, primaryStage, currentDate, location, snapshot);
 		setDayOfWeekHeaders(calendarView, currentDate);
 
 		BorderPane header = new BorderPane();
@@ -86,11 +135,26 @@ public class CalendarView extends Application {
 		layout.setTop(header);
 		layout.setCenter(calendarView);
 
+		debugOverlay.setFont(new Font("Monospaced", 11));
+		debugOverlay.setPadding(new Insets(2, 5, 2, 5));
+		setDebugOverlayVisible(Boolean.getBoolean("calendar.debug"));
+		layout.setBottom(debugOverlay);
+
 		Scene scene = new Scene(layout);
+		scene.setOnKeyPressed(keyEvent -> {
+			if (keyEvent.getCode() == KeyCode.F3)
+				setDebugOverlayVisible(!debugOverlay.isVisible());
+		});
 		scene.getStylesheets().add(getClass().getResource("calendar-view.css").toExternalForm());
 		primaryStage.setScene(scene);
 		primaryStage.show();
 
+		// Runs after the pulse that draws the window, close enough to when the first frame is on screen
+		Platform.runLater(() -> {
+			long millis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+			firstFrame = "First frame " + millis + " ms" + (snapshot != null ? " from the session snapshot" : "") + "\n";
+			debugOverlay.setText(firstFrame + debugOverlay.getText());
+		});
 	}
 
 	// Set the HBox in the header which contains the buttons
@@ -149,8 +213,7 @@ public class CalendarView extends Application {
 					currentDate = currentDate.withYear(year);
 					currentDate = currentDate.withMonth(monthsDropdown.getValue().getValue());
 					month.setText(currentDate.getMonth().toString());
-					//double[] positions = timeSlots.get(0).getSwissEphDate()
-					setMonth(calendarView, primaryStage, currentDate, timeSlots.get(0).getSwissEphDate());
+					setMonth(calendarView, primaryStage, currentDate, location);
 					dateWindow.close();
 
 				} catch (NumberFormatException e) {
@@ -211,6 +274,12 @@ public class CalendarView extends Application {
 			elevationEntry.setMaxSize(80, 80);
 			elevationEntry.setAlignment(Pos.CENTER_RIGHT);
 
+			// Blank for the whole hour offset of the longitude
+			Label zoneEntryLabel = new Label("Enter Time Zone: ");
+			TextField zoneEntry = new TextField(location.getZone().getId());
+			zoneEntry.setMaxSize(140, 80);
+			zoneEntry.setAlignment(Pos.CENTER_RIGHT);
+
 			Button okButton = new Button("OK");
 
 			okButton.setOnMouseClicked(okPressEvent -> {
@@ -218,20 +287,27 @@ public class CalendarView extends Application {
 					double longitude = Double.parseDouble(longitudeEntry.getText());
 					double latitude = Double.parseDouble(latitudeEntry.getText());
 					double elevation = Double.parseDouble(elevationEntry.getText());
+					String zoneId = zoneEntry.getText().trim();
+					ZoneId zone = zoneId.isEmpty() ? GeoLocation.defaultZone(longitude) : ZoneId.of(zoneId);
 					
 					longitudeText.setText("Longitude: " + longitude);
 					latitudeText.setText("Latitude: " +  latitude);
 					elevationText.setText("Elevation: " + elevation + "m");
+					zoneText.setText("Time Zone: " + zone.getId());
 
-					for (TimeSlot ts : timeSlots) {
-						ts.setSwissEphDate(new SwissEphDate(ts.getDate(), longitude, latitude, elevation));
-					}
+					location = new GeoLocation(longitude, latitude, elevation, zone);
+					setMonth(calendarView, primaryStage, currentDate, location);
 					geolocationWindow.close();
 				} catch (NumberFormatException e) {
 					Alert alert = new Alert(AlertType.ERROR);
 					alert.setHeaderText("Invalid Entry");
 					alert.setContentText("Please enter a valid longitude, latitude, and elevation to continue");
 					alert.show();
+				} catch (DateTimeException e) {
+					Alert alert = new Alert(AlertType.ERROR);
+					alert.setHeaderText("Invalid Entry");
+					alert.setContentText("Please enter a time zone like America/Vancouver or -08:00, or leave it blank to use the longitude");
+					alert.show();
 				}
 			});
 
@@ -251,106 +327,343 @@ public class CalendarView extends Application {
 			setDatePane.add(latitudeEntry, 2, 2);
 			setDatePane.add(elevationEntryLabel, 1, 3);
 			setDatePane.add(elevationEntry, 2, 3);
-			setDatePane.add(cancelButton, 1, 4);
-			setDatePane.add(okButton, 2, 4);
+			setDatePane.add(zoneEntryLabel, 1, 4);
+			setDatePane.add(zoneEntry, 2, 4);
+			setDatePane.add(cancelButton, 1, 5);
+			setDatePane.add(okButton, 2, 5);
 
 			geolocationWindow.setScene(new Scene(setDatePane));
 			geolocationWindow.show();
 
 		});
 
-		Button csvButton = new Button("Export Month");
+		Button csvButton = new Button("Export CSV");
 		csvButton.setOnMouseClicked(cvsPressEvent -> {
-			FileChooser fileChooser = new FileChooser();
+			Stage exportWindow = new Stage();
+			exportWindow.setTitle("Select Dates to Export");
+			exportWindow.initModality(Modality.WINDOW_MODAL);
+			exportWindow.initOwner(primaryStage);
+
+			// Range defaults to the month on screen
+			Label startEntryLabel = new Label("Start Date: ");
+			TextField startEntry = new TextField(currentDate.withDayOfMonth(1).toString());
+			startEntry.setMaxSize(100, 80);
+			startEntry.setPromptText("yyyy-mm-dd");
+			startEntry.setAlignment(Pos.CENTER_RIGHT);
+
+			Label endEntryLabel = new Label("End Date: ");
+			TextField endEntry = new TextField(currentDate.withDayOfMonth(currentDate.lengthOfMonth()).toString());
+			endEntry.setMaxSize(100, 80);
+			endEntry.setPromptText("yyyy-mm-dd");
+			endEntry.setAlignment(Pos.CENTER_RIGHT);
 
-			// Set extension filter for text files
-			FileChooser.ExtensionFilter extFilter = new FileChooser.ExtensionFilter("CSV files (*.csv)", "*.csv");
-			fileChooser.getExtensionFilters().add(extFilter);
+			Button okButton = new Button("OK");
+			okButton.setOnMouseClicked(okPressEvent -> {
+				try {
+					LocalDate start = clampToSupportedYears(LocalDate.parse(startEntry.getText()));
+					LocalDate end = clampToSupportedYears(LocalDate.parse(endEntry.getText()));
+					if (end.isBefore(start)) {
+						Alert alert = new Alert(AlertType.ERROR);
+						alert.setHeaderText("Invalid Entry");
+						alert.setContentText("The end date must not be before the start date");
+						alert.show();
+						return;
+					}
+					exportWindow.close();
 
-			// Show save file dialog
-			File file = fileChooser.showSaveDialog(primaryStage);
-			
-			//Show dialog as its saving
-			Alert csvAlert = new Alert(AlertType.INFORMATION);
-			csvAlert.getButtonTypes().clear();
-			csvAlert.setTitle("Saving file");
-			csvAlert.setHeaderText(null);
-			csvAlert.setContentText("Saving file, please wait...");
+					FileChooser fileChooser = new FileChooser();
 
-			csvAlert.show();
-			try (PrintWriter writer = new PrintWriter(file)) {
-
-				StringBuilder sb = new StringBuilder();
-				sb.append("Date");
-				sb.append(',');
-				sb.append("SunriseTime");
-				sb.append(',');
-				sb.append("SunsetTime");
-				sb.append(',');
-				sb.append("MoonriseTime");
-				sb.append(',');
-				sb.append("MoonsetTime");
-				sb.append(',');
-				sb.append("MoonPhase");
-				sb.append(',');
-				sb.append("NextSolarDate");
-				sb.append(',');
-				sb.append("NextLunarDate");
-				sb.append('\n');
-
-				for (TimeSlot ts : timeSlots) {
-					SwissEphDate s = ts.getSwissEphDate();
-					sb.append(ts.getDate().toString());
-					sb.append(',');
-					sb.append(s.getSunriseTime());
-					sb.append(',');
-					sb.append(s.getSunsetTime());
-					sb.append(',');
-					sb.append(s.getMoonriseTime());
-					sb.append(',');
-					sb.append(s.getMoonsetTime());
-					sb.append(',');
-					sb.append(s.getMoonPhase());
-					sb.append(',');
-					sb.append(s.getNextSolarEclipse().toString());
-					sb.append(',');
-					sb.append(s.getNextLunarEclipse().toString());
-					sb.append('\n');
+					// Set extension filter for text files
+					FileChooser.ExtensionFilter extFilter = new FileChooser.ExtensionFilter("CSV files (*.csv)", "*.csv");
+					fileChooser.getExtensionFilters().add(extFilter);
+
+					// Show save file dialog
+					File file = fileChooser.showSaveDialog(primaryStage);
+					if (file != null)
+						exportCsv(primaryStage, start, end, location, file);
+				} catch (DateTimeParseException e) {
+					Alert alert = new Alert(AlertType.ERROR);
+					alert.setHeaderText("Invalid Entry");
+					alert.setContentText("Please enter dates as yyyy-mm-dd to continue");
+					alert.show();
 				}
+			});
+
+			Button cancelButton = new Button("Cancel");
+			cancelButton.setOnMouseClicked(cancelPressEvent -> {
+				exportWindow.close();
+			});
+
+			GridPane exportPane = new GridPane();
+			exportPane.setHgap(5);
+			exportPane.setVgap(5);
+			exportPane.setPadding(new Insets(10));
+
+			exportPane.add(startEntryLabel, 1, 1);
+			exportPane.add(startEntry, 2, 1);
+			exportPane.add(endEntryLabel, 1, 2);
+			exportPane.add(endEntry, 2, 2);
+			exportPane.add(cancelButton, 1, 3);
+			exportPane.add(okButton, 2, 3);
+
+			exportWindow.setScene(new Scene(exportPane));
+			exportWindow.show();
+		});
 
-				//file now exists, so write to it and tell the user
-				if (file != null) {
-					writer.println(sb.toString());
-					writer.close();
-					//Button needed in order to close dialog
-					csvAlert.getButtonTypes().add(ButtonType.OK);
-					csvAlert.close();
-					csvAlert = new Alert(AlertType.INFORMATION);
-					csvAlert.setTitle("File Saved");
-					csvAlert.setHeaderText(null);
-					csvAlert.setContentText("File saved successfully!");
-					csvAlert.showAndWait();
+		// Astronomical events as an iCalendar file calendar clients can import, the year on screen by default
+		Button icsButton = new Button("Export ICS");
+		icsButton.setOnMouseClicked(icsPressEvent -> {
+			Stage exportWindow = new Stage();
+			exportWindow.setTitle("Select Dates to Export");
+			exportWindow.initModality(Modality.WINDOW_MODAL);
+			exportWindow.initOwner(primaryStage);
+
+			Label startEntryLabel = new Label("Start Date: ");
+			TextField startEntry = new TextField(currentDate.withDayOfYear(1).toString());
+			startEntry.setMaxSize(100, 80);
+			startEntry.setPromptText("yyyy-mm-dd");
+			startEntry.setAlignment(Pos.CENTER_RIGHT);
+
+			Label endEntryLabel = new Label("End Date: ");
+			TextField endEntry = new TextField(currentDate.withDayOfYear(currentDate.lengthOfYear()).toString());
+			endEntry.setMaxSize(100, 80);
+			endEntry.setPromptText("yyyy-mm-dd");
+			endEntry.setAlignment(Pos.CENTER_RIGHT);
+
+			CheckBox sunEntry = new CheckBox("Sunrise and sunset");
+
+			Button okButton = new Button("OK");
+			okButton.setOnMouseClicked(okPressEvent -> {
+				try {
+					LocalDate start = clampToSupportedYears(LocalDate.parse(startEntry.getText()));
+					LocalDate end = clampToSupportedYears(LocalDate.parse(endEntry.getText()));
+					if (end.isBefore(start)) {
+						Alert alert = new Alert(AlertType.ERROR);
+						alert.setHeaderText("Invalid Entry");
+						alert.setContentText("The end date must not be before the start date");
+						alert.show();
+						return;
+					}
+					exportWindow.close();
+
+					FileChooser fileChooser = new FileChooser();
+					fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("iCalendar files (*.ics)", "*.ics"));
+					File file = fileChooser.showSaveDialog(primaryStage);
+					if (file != null)
+						exportIcs(primaryStage, start, end, location, sunEntry.isSelected(), file);
+				} catch (DateTimeParseException e) {
+					Alert alert = new Alert(AlertType.ERROR);
+					alert.setHeaderText("Invalid Entry");
+					alert.setContentText("Please enter dates as yyyy-mm-dd to continue");
+					alert.show();
 				}
-			} catch (Exception e) {
-				System.out.println(e.getMessage());
-			}
+			});
+
+			Button cancelButton = new Button("Cancel");
+			cancelButton.setOnMouseClicked(cancelPressEvent -> {
+				exportWindow.close();
+			});
+
+			GridPane exportPane = new GridPane();
+			exportPane.setHgap(5);
+			exportPane.setVgap(5);
+			exportPane.setPadding(new Insets(10));
+
+			exportPane.add(startEntryLabel, 1, 1);
+			exportPane.add(startEntry, 2, 1);
+			exportPane.add(endEntryLabel, 1, 2);
+			exportPane.add(endEntry, 2, 2);
+			exportPane.add(sunEntry, 2, 3);
+			exportPane.add(cancelButton, 1, 4);
+			exportPane.add(okButton, 2, 4);
+
+			exportWindow.setScene(new Scene(exportPane));
+			exportWindow.show();
+		});
+
+		// Scrollable years, picking a day there opens its month here
+		Button yearButton = new Button("Year View");
+		yearButton.setOnMouseClicked(yearPressEvent -> {
+			Stage yearWindow = new Stage();
+			yearWindow.setTitle("Years");
+			yearWindow.initModality(Modality.WINDOW_MODAL);
+			yearWindow.initOwner(primaryStage);
+
+			YearView yearView = new YearView(location, date -> {
+				currentDate = date;
+				month.setText(currentDate.getMonth().toString());
+				setMonth(calendarView, primaryStage, currentDate, location);
+				yearWindow.close();
+			});
+			yearView.scrollTo(YearMonth.from(currentDate));
+			yearWindow.setOnHidden(hiddenEvent -> yearView.dispose());
+
+			yearWindow.setScene(new Scene(new BorderPane(yearView.getView())));
+			yearWindow.getScene().getStylesheets().add(getClass().getResource("calendar-view.css").toExternalForm());
+			yearWindow.show();
 		});
 		
+		// Highlights the days matching a query, and finds the next month with one
+		ComboBox<String> queryDropdown = new ComboBox<String>(FXCollections.observableArrayList(QUERIES.keySet()));
+		queryDropdown.getSelectionModel().select(0);
+		Button nextMatchButton = new Button("Next match");
+		nextMatchButton.setDisable(true);
+		queryDropdown.setOnAction(queryEvent -> {
+			query = QUERIES.get(queryDropdown.getValue());
+			nextMatchButton.setDisable(query == null);
+			highlightMatches();
+		});
+		nextMatchButton.setOnMouseClicked(nextPressEvent -> {
+			DayPredicate searched = query;
+			GeoLocation searchLocation = location;
+			LocalDate from = currentDate.withDayOfMonth(1).plusMonths(1);
+			nextMatchButton.setDisable(true);
+			Task<LocalDate> task = new Task<LocalDate>() {
+				@Override
+				protected LocalDate call() throws Exception {
+					return AlmanacQuery.findNext(rangeCalculator, searchLocation, from, searched);
+				}
+			};
+			task.setOnSucceeded(event -> {
+				nextMatchButton.setDisable(query == null);
+				if (task.getValue() == null) {
+					Alert alert = new Alert(AlertType.INFORMATION);
+					alert.setHeaderText(null);
+					alert.setContentText("No more matching days up to 2100");
+					alert.show();
+					return;
+				}
+				currentDate = task.getValue();
+				month.setText(currentDate.getMonth().toString());
+				setMonth(calendarView, primaryStage, currentDate, location);
+			});
+			task.setOnFailed(event -> {
+				nextMatchButton.setDisable(query == null);
+				System.out.println("Search failed: " + task.getException());
+			});
+			Thread thread = new Thread(task, "almanac-query");
+			thread.setDaemon(true);
+			thread.start();
+		});
+
 		//Create Space between buttons and position coordinates
         Region region1 = new Region();
         HBox.setHgrow(region1, Priority.ALWAYS);
 
 		VBox vbox = new VBox();
-		double[] position = timeSlots.get(0).getSwissEphDate().getPositions();
-		longitudeText.setText("Longitude: " + position[0]);
-		latitudeText.setText("Latitude: " + position[1]);
-		elevationText.setText("Elevation: " + position[2] + "m");
-		vbox.getChildren().addAll(longitudeText, latitudeText, elevationText);
+		longitudeText.setText("Longitude: " + location.getLongitude());
+		latitudeText.setText("Latitude: " + location.getLatitude());
+		elevationText.setText("Elevation: " + location.getElevation() + "m");
+		zoneText.setText("Time Zone: " + location.getZone().getId());
+		vbox.getChildren().addAll(longitudeText, latitudeText, elevationText, zoneText);
 		
-		hbox.getChildren().addAll(dateButton, geolocationButton, csvButton, region1, vbox);
+		hbox.getChildren().addAll(dateButton, geolocationButton, csvButton, icsButton, yearButton, queryDropdown, nextMatchButton, region1, vbox);
 		return hbox;
 	}
 
+	// Writes the date range to a csv file in the background, showing progress with a way to cancel
+	private void exportCsv(Stage primaryStage, LocalDate start, LocalDate end, GeoLocation exportLocation, File file) {
+		AlmanacExporter exporter = new AlmanacExporter(rangeCalculator);
+		Task<Void> task = new Task<Void>() {
+			@Override
+			protected Void call() throws Exception {
+				try (Writer out = new BufferedWriter(new FileWriter(file))) {
+					exporter.export(start, end, Collections.singletonList(exportLocation), out,
+							(written, total) -> updateProgress(written, total));
+				}
+				return null;
+			}
+		};
+		runExport(primaryStage, "Saving " + start + " to " + end + ", please wait...", task, exporter::cancel, file);
+	}
+
+	// Writes the date range's events to an ics file in the background, the same way
+	private void exportIcs(Stage primaryStage, LocalDate start, LocalDate end, GeoLocation exportLocation, boolean sunriseSunset, File file) {
+		IcsExporter exporter = new IcsExporter(exportLocation, sunriseSunset);
+		Task<Void> task = new Task<Void>() {
+			@Override
+			protected Void call() throws Exception {
+				try (Writer out = new BufferedWriter(new FileWriter(file))) {
+					exporter.export(start, end, out, (written, total) -> updateProgress(written, total));
+				}
+				return null;
+			}
+		};
+		runExport(primaryStage, "Saving events from " + start + " to " + end + ", please wait...", task, exporter::cancel, file);
+	}
+
+	// Runs an export task on its own thread with a progress dialog, cancel stops the exporter
+	private void runExport(Stage primaryStage, String message, Task<Void> task, Runnable cancel, File file) {
+		//Show dialog as its saving
+		Stage progressWindow = new Stage();
+		progressWindow.setTitle("Saving file");
+		progressWindow.initModality(Modality.WINDOW_MODAL);
+		progressWindow.initOwner(primaryStage);
+
+		Label progressLabel = new Label(message);
+		ProgressBar progressBar = new ProgressBar(0);
+		progressBar.setPrefWidth(250);
+		progressBar.progressProperty().bind(task.progressProperty());
+
+		Button cancelButton = new Button("Cancel");
+		cancelButton.setOnMouseClicked(cancelPressEvent -> {
+			cancel.run();
+			task.cancel(true);
+		});
+
+		task.setOnSucceeded(event -> {
+			progressWindow.close();
+			Alert csvAlert = new Alert(AlertType.INFORMATION);
+			csvAlert.setTitle("File Saved");
+			csvAlert.setHeaderText(null);
+			csvAlert.setContentText("File saved successfully!");
+			csvAlert.show();
+		});
+		task.setOnCancelled(event -> {
+			progressWindow.close();
+			file.delete(); // Don't leave half a file behind
+		});
+		task.setOnFailed(event -> {
+			progressWindow.close();
+			Alert alert = new Alert(AlertType.ERROR);
+			alert.setHeaderText("Export failed");
+			alert.setContentText(String.valueOf(task.getException().getMessage()));
+			alert.show();
+		});
+
+		VBox progressPane = new VBox(10, progressLabel, progressBar, cancelButton);
+		progressPane.setPadding(new Insets(10));
+		progressWindow.setScene(new Scene(progressPane));
+		progressWindow.show();
+
+		Thread thread = new Thread(task, "file-export");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	// Marks the days of the month on screen matching the query picked, once the month has been calculated
+	private void highlightMatches() {
+		DayIndex index = query != null && monthResult != null ? DayIndex.of(monthResult) : null;
+		for (TimeSlot slot : timeSlots) {
+			int day = index == null ? -1 : index.indexOf(slot.getDate());
+			slot.setHighlighted(day >= 0 && query.test(index, day));
+		}
+	}
+
+	private void setDebugOverlayVisible(boolean visible) {
+		debugOverlay.setVisible(visible);
+		debugOverlay.setManaged(visible);
+	}
+
+	// The calendar only supports the years 1900 - 2100
+	private static LocalDate clampToSupportedYears(LocalDate date) {
+		if (date.getYear() > 2100)
+			return LocalDate.of(2100, 12, 31);
+		if (date.getYear() < 1900)
+			return LocalDate.of(1900, 1, 1);
+		return date;
+	}
+
 	//Mon    Tues    Wed    etc
 	private void setDayOfWeekHeaders(GridPane calendarView, LocalDate date) {
 		DateTimeFormatter dayFormatter = DateTimeFormatter.ofPattern("E");
@@ -366,50 +679,94 @@ public class CalendarView extends Application {
 		}
 	}
 
-	// Each square in the Calendar GUI is a Timeslot, stores it's own date, pane, and calculation
+	// Each square in the Calendar GUI is a Timeslot, stores it's own date, pane, and the month's calculations
+	// Slots start out as placeholders showing only the day number until their calculations arrive
+	// The nodes are made once, moving to another month rebinds the same slots to the new dates
 	public static class TimeSlot {
+		private static final String PENDING = "...";
+
 		private LocalDate date;
+		private GeoLocation location;
 		private Pane view;
-		private SwissEphDate SED;
+		private Text t;
+		private ImageView moonPhaseImg;
+		private Text lunationText; // exact time of a new moon, quarter or full moon on this day
+		private Text planetsText; // planets visible at dusk
+		private RangeResult result;
+		private int day; // index of the date in result
+		private PlanetOverview planets; // the month's planets once they are worked out
+
+		public TimeSlot(LocalDate date, GeoLocation location, Stage primaryStage) {
+			this(primaryStage);
+			bind(date, location);
+		}
 
-		public TimeSlot(LocalDate date, Stage primaryStage, SwissEphDate s) {
-			this.date = date;
+		// Slot without a date yet, see bind
+		public TimeSlot(Stage primaryStage) {
 			view = new Pane();
 			view.setMinSize(80, 80);
 			view.getStyleClass().add("time-slot");
-			Text t = new Text(10, 20, date.getDayOfMonth() + "");
+			t = new Text(10, 20, "");
 			
-			double[] position = s.getPositions();
-			SED = new SwissEphDate(date, position[0], position[1], position[2]);
-			//SED = new SwissEphDate(date, -119.4960, 49.803, 334.0);
-			ImageView moonPhaseImg = new ImageView(SED.getMoonPhaseImg());
+			moonPhaseImg = new ImageView();
 			moonPhaseImg.setFitWidth(10);
 			moonPhaseImg.setFitHeight(10);
 
-			view.getChildren().addAll(t, moonPhaseImg);
+			lunationText = new Text();
+			lunationText.setFont(new Font("Arial", 10));
+
+			planetsText = new Text();
+			planetsText.setFont(new Font("Arial", 10));
+
+			view.getChildren().addAll(t, moonPhaseImg, lunationText, planetsText);
 			moonPhaseImg.relocate(60, 5);
 			t.relocate(5, 0);
+			lunationText.relocate(5, 62);
+			planetsText.relocate(5, 48);
 
 			view.setOnMouseClicked(event -> {
+				// Opens straight away, each field fills in as it is worked out and stays worked out for the next time
+				DayDetails shown = DayDetailsCache.shared().get(date, location, result, planets);
+
 				Stage dateWindow = new Stage();
 				dateWindow.setTitle(date.getMonth().toString() + " " + date.getDayOfMonth() + " " + date.getYear());
 				dateWindow.initModality(Modality.WINDOW_MODAL);
 				dateWindow.initOwner(primaryStage);
 
-				// Calculate data for given date and display it
-				Text sunriseText = new Text(10, 20, "Sunrise Time: " + SED.getSunriseTime());
-				Text sunsetText = new Text(10, 20, "Sunset Time: " + SED.getSunsetTime());
-				Text moonriseText = new Text(10, 20, "Moonrise Time: " + SED.getMoonriseTime());
-				Text moonsetText = new Text(10, 20, "Moonset Time: " + SED.getMoonsetTime());
-				Text nextSolarEclipseText = new Text(10, 20,
-						"Next Solar Eclipse: " + SED.getNextSolarEclipse().toString());
-				Text nextLunarEclipseText = new Text(10, 20,
-						"Next Lunar Eclipse: " + SED.getNextLunarEclipse().toString());
-				ImageView moonPhaseView = new ImageView(SED.getMoonPhaseImg());
+				Text sunriseText = new Text(10, 20, "Sunrise Time: " + PENDING);
+				Text sunsetText = new Text(10, 20, "Sunset Time: " + PENDING);
+				Text solarNoonText = new Text(10, 20, "Solar Noon: " + PENDING);
+				Text dayLengthText = new Text(10, 20, "Day Length: " + PENDING);
+				Text[] twilightTexts = new Text[DaySummary.Twilight.values().length];
+				for (DaySummary.Twilight twilight : DaySummary.Twilight.values())
+					twilightTexts[twilight.ordinal()] = new Text(10, 20, twilight + " Twilight: " + PENDING);
+				Text moonriseText = new Text(10, 20, "Moonrise Time: " + PENDING);
+				Text moonsetText = new Text(10, 20, "Moonset Time: " + PENDING);
+				Text nextSolarEclipseText = new Text(10, 20, "Next Solar Eclipse: " + PENDING);
+				Text nextLunarEclipseText = new Text(10, 20, "Next Lunar Eclipse: " + PENDING);
+				Text lunationDetail = new Text(10, 20, "");
+				Text planetsDetail = new Text(10, 20, "Planets: " + PENDING);
+				ImageView moonPhaseView = new ImageView();
 
 				moonPhaseView.setFitWidth(50);
 				moonPhaseView.setFitHeight(50);
-				Tooltip.install(moonPhaseView, new Tooltip(SED.getMoonPhase()));
+
+				whenReady(shown.getSummary(), summary -> {
+					sunriseText.setText("Sunrise Time: " + summary.format(DaySummary.Event.SUNRISE));
+					sunsetText.setText("Sunset Time: " + summary.format(DaySummary.Event.SUNSET));
+					solarNoonText.setText("Solar Noon: " + summary.formatSolarNoon());
+					dayLengthText.setText("Day Length: " + summary.formatDayLength());
+					for (DaySummary.Twilight twilight : DaySummary.Twilight.values())
+						twilightTexts[twilight.ordinal()].setText(twilight + " Twilight: " + summary.formatDawn(twilight) + " - " + summary.formatDusk(twilight));
+					moonriseText.setText("Moonrise Time: " + summary.format(DaySummary.Event.MOONRISE));
+					moonsetText.setText("Moonset Time: " + summary.format(DaySummary.Event.MOONSET));
+					moonPhaseView.setImage(MoonPhaseAtlas.get(summary.getMoonPhase(), MoonPhaseAtlas.POPUP_SIZE));
+					Tooltip.install(moonPhaseView, new Tooltip(summary.getMoonPhase().toString()));
+				});
+				whenReady(shown.getLunation(), lunationDetail::setText);
+				whenReady(shown.getNextSolarEclipse(), eclipse -> nextSolarEclipseText.setText("Next Solar Eclipse: " + eclipse));
+				whenReady(shown.getNextLunarEclipse(), eclipse -> nextLunarEclipseText.setText("Next Lunar Eclipse: " + eclipse));
+				whenReady(shown.getPlanets(), planetsDetail::setText);
 
 				GridPane datePane = new GridPane();
 				datePane.setPadding(new Insets(37));
@@ -420,10 +777,17 @@ public class CalendarView extends Application {
 				datePane.add(moonPhaseView, 1, 0);
 				datePane.add(sunriseText, 1, 1);
 				datePane.add(sunsetText, 1, 2);
-				datePane.add(moonriseText, 1, 3);
-				datePane.add(moonsetText, 1, 4);
-				datePane.add(nextSolarEclipseText, 1, 5);
-				datePane.add(nextLunarEclipseText, 1, 6);
+				datePane.add(solarNoonText, 1, 3);
+				datePane.add(dayLengthText, 1, 4);
+				int row = 5;
+				for (Text twilightText : twilightTexts)
+					datePane.add(twilightText, 1, row++);
+				datePane.add(moonriseText, 1, row++);
+				datePane.add(moonsetText, 1, row++);
+				datePane.add(nextSolarEclipseText, 1, row++);
+				datePane.add(nextLunarEclipseText, 1, row++);
+				datePane.add(lunationDetail, 1, row++);
+				datePane.add(planetsDetail, 1, row);
 
 				dateWindow.setScene(new Scene(datePane));
 				dateWindow.show();
@@ -431,12 +795,61 @@ public class CalendarView extends Application {
 
 		}
 
-		public void setSwissEphDate(SwissEphDate s) {
-			SED = s;
+		// Shows another date as a placeholder, dropping the old date's calculations
+		public void bind(LocalDate date, GeoLocation location) {
+			this.date = date;
+			this.location = location;
+			result = null;
+			day = -1;
+			planets = null;
+			t.setText(date.getDayOfMonth() + "");
+			moonPhaseImg.setImage(null);
+			lunationText.setText("");
+			planetsText.setText("");
+			setHighlighted(false);
+		}
+
+		// Fills the placeholder in once the day has been calculated
+		public void setResult(RangeResult result) {
+			this.result = result;
+			this.day = result.indexOf(date);
+			moonPhaseImg.setImage(MoonPhaseAtlas.get(result.getMoonPhase(day), MoonPhaseAtlas.GRID_SIZE));
+			LunationTable.Quarter quarter = result.getLunationQuarter(day);
+			lunationText.setText(quarter == null ? "" : quarter.getShortName() + " " + result.getLunationTime(day));
+		}
+
+		// Shows the planets visible at dusk once the month's planets are worked out
+		public void setPlanets(PlanetOverview planets) {
+			int planetDay = planets.indexOf(date);
+			if (planetDay < 0)
+				return;
+			this.planets = planets;
+			planetsText.setText(planets.getVisibleShortNames(planetDay));
+		}
+
+		// Marks the day as matching the query picked in the header
+		public void setHighlighted(boolean highlighted) {
+			view.getStyleClass().remove("time-slot-match");
+			if (highlighted)
+				view.getStyleClass().add("time-slot-match");
+		}
+
+		public RangeResult getResult() {
+			return result;
 		}
 
-		public SwissEphDate getSwissEphDate() {
-			return SED;
+		// Runs update on the FX thread once the field has been worked out, right away if it already has
+		private static <T> void whenReady(CompletableFuture<T> field, Consumer<T> update) {
+			if (field.isDone() && !field.isCompletedExceptionally()) {
+				update.accept(field.join());
+				return;
+			}
+			field.whenComplete((value, error) -> Platform.runLater(() -> {
+				if (error != null)
+					System.out.println("Day details failed: " + error.getMessage());
+				else
+					update.accept(value);
+			}));
 		}
 
 		public LocalDate getDate() {
@@ -453,26 +866,88 @@ public class CalendarView extends Application {
 
 	}
 
-	public void setMonth(GridPane calendarView, Stage primaryStage, LocalDate date, SwissEphDate s) {
-		for (TimeSlot t : timeSlots) {
-			calendarView.getChildren().remove(t.getView());
-		}
-		timeSlots.clear();
+	public void setMonth(GridPane calendarView, Stage primaryStage, LocalDate date, GeoLocation location) {
+		setMonth(calendarView, primaryStage, date, location, null);
+	}
 
+	// Same as above, showing the snapshot (the same month calculated earlier, or null) until the fresh days arrive
+	private void setMonth(GridPane calendarView, Stage primaryStage, LocalDate date, GeoLocation location, RangeResult snapshot) {
 		LocalDate startOfMonth = date.withDayOfMonth(1);
 		LocalDate endOfMonth = date.withDayOfMonth(date.lengthOfMonth());
-		int row = 3;
+		int days = date.lengthOfMonth();
 
-		for (LocalDate d = startOfMonth; !d.isAfter(endOfMonth); d = d.plusDays(1)) {
-			TimeSlot timeSlot = new TimeSlot(d, primaryStage, s);
+		// Slots are kept between months, new ones are only made the first time a month is longer than any before it
+		while (timeSlots.size() < days) {
+			TimeSlot timeSlot = new TimeSlot(primaryStage);
 			timeSlots.add(timeSlot);
-			calendarView.add(timeSlot.getView(), timeSlot.getDayOfWeek().getValue(), row);
+			calendarView.getChildren().add(timeSlot.getView());
+		}
+
+		int row = 3;
+		for (int i = 0; i < timeSlots.size(); i++) {
+			TimeSlot timeSlot = timeSlots.get(i);
+			Node view = timeSlot.getView();
+			view.setVisible(i < days);
+			view.setManaged(i < days);
+			if (i >= days)
+				continue;
+
+			timeSlot.bind(startOfMonth.plusDays(i), location);
+			GridPane.setConstraints(view, timeSlot.getDayOfWeek().getValue(), row);
 
 			// If it is Sunday, switch increase row count
 			if (timeSlot.getDayOfWeek().getValue() == 7) {
 				row++;
 			}
 		}
+
+		// Calculations run in the background, slots fill in as their days arrive
+		// Prefetching stops while the month on screen is calculated and starts again around it once it is done
+		prefetcher.cancel();
+		monthResult = snapshot;
+		if (snapshot != null)
+			for (TimeSlot slot : timeSlots.subList(0, days))
+				slot.setResult(snapshot);
+		highlightMatches();
+		List<TimeSlot> slots = new ArrayList<>(timeSlots.subList(0, days));
+		CalculationMetrics.Snapshot before = CalculationMetrics.shared().snapshot();
+		monthLoader.load(startOfMonth, endOfMonth, location, new MonthLoader.Callback() {
+			@Override
+			public void daysReady(RangeResult result, List<Integer> days) {
+				for (int day : days)
+					slots.get(day).setResult(result);
+			}
+
+			@Override
+			public void finished(RangeResult result) {
+				monthResult = result;
+				highlightMatches();
+				if (snapshot != null) {
+					int stale = SessionSnapshot.differences(snapshot, result);
+					if (stale > 0) {
+						System.out.println("Session snapshot was out of date on " + stale + " days");
+						DayDetailsCache.shared().clear(); // popups opened before now showed the snapshot's days
+					}
+				}
+				debugOverlay.setText(firstFrame + "Last month " + CalculationMetrics.shared().snapshot().describeSince(before));
+				prefetcher.monthShown(startOfMonth, location);
+			}
+
+			@Override
+			public void planetsReady(PlanetOverview planets) {
+				for (TimeSlot slot : slots)
+					slot.setPlanets(planets);
+			}
+		});
+	}
+
+	@Override
+	public void stop() {
+		if (monthResult != null)
+			SessionSnapshot.save(monthResult);
+		monthLoader.shutdown();
+		prefetcher.shutdown();
+		AlmanacStore.flushAll();
 	}
 
 	public static void main(String[] args) {
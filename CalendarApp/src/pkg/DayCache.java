@@ -0,0 +1,139 @@
+package pkg;
+
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Least recently used cache of calculated days, keyed by location and date
+ * It sits in front of every DaySummary calculation (SwissEphDate, RangeCalculator and everything built on it)
+ * so going back to a month or location seen before doesn't recalculate anything
+ * The number of days kept can be set with -Dcalendar.cache.days or setMaxSize, the least recently used day
+ * is dropped once it is full, and hit / miss counts are kept to help pick a size
+ */
+
+public class DayCache {
+	public static final int DEFAULT_MAX_SIZE = 4096; // a bit over 11 years of days, or 130 months
+
+	private static final DayCache SHARED = new DayCache(Integer.getInteger("calendar.cache.days", DEFAULT_MAX_SIZE));
+
+	private final LinkedHashMap<Key, DaySummary> days;
+	private volatile int maxSize;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public DayCache(int maxSize) {
+		checkSize(maxSize);
+		this.maxSize = maxSize;
+		// Access ordered so iteration starts at the least recently used day
+		days = new LinkedHashMap<Key, DaySummary>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, DaySummary> eldest) {
+				if (size() <= DayCache.this.maxSize)
+					return false;
+				evictions.incrementAndGet();
+				return true;
+			}
+		};
+	}
+
+	public static DayCache shared() { return SHARED; }
+
+	// Returns the cached day or null, counting a hit or a miss
+	public DaySummary get(GeoLocation location, LocalDate date) {
+		DaySummary summary;
+		synchronized (days) {
+			summary = days.get(new Key(location, date));
+		}
+		(summary != null ? hits : misses).incrementAndGet();
+		return summary;
+	}
+
+	public void put(GeoLocation location, DaySummary summary) {
+		synchronized (days) {
+			days.put(new Key(location, summary.getDate()), summary);
+		}
+	}
+
+	// Changes how many days are kept, shrinking drops the least recently used days straight away
+	public void setMaxSize(int maxSize) {
+		checkSize(maxSize);
+		this.maxSize = maxSize;
+		synchronized (days) {
+			while (days.size() > maxSize) {
+				Key eldest = days.keySet().iterator().next();
+				days.remove(eldest);
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	private static void checkSize(int maxSize) {
+		if (maxSize < 1)
+			throw new IllegalArgumentException("Cache size must be at least 1");
+	}
+
+	public void clear() {
+		synchronized (days) {
+			days.clear();
+		}
+	}
+
+	// *** Statistics
+	public int getMaxSize() { return maxSize; }
+	public long getHits() { return hits.get(); }
+	public long getMisses() { return misses.get(); }
+	public long getEvictions() { return evictions.get(); }
+
+	public int size() {
+		synchronized (days) {
+			return days.size();
+		}
+	}
+
+	// Fraction of lookups answered from the cache, 0 before any lookups
+	public double getHitRate() {
+		long h = hits.get(), total = h + misses.get();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	public void resetStatistics() {
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "DayCache " + size() + "/" + maxSize + " days, " + hits + " hits, " + misses + " misses, " + evictions + " evictions";
+	}
+
+	// Also keys the DayDetailsCache
+	static final class Key {
+		final GeoLocation location;
+		final long epochDay;
+
+		Key(GeoLocation location, LocalDate date) {
+			this.location = location;
+			this.epochDay = date.toEpochDay();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			return epochDay == other.epochDay && location.equals(other.location);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * location.hashCode() + Long.hashCode(epochDay);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package pkg;
+
+import java.time.LocalDate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/*
+ * Everything the day popup shows, each field worked out on its own off the FX thread
+ * The popup opens straight away with placeholders and fills each field in as its future completes
+ * The DayDetailsCache keeps the DayDetails for each date, so opening the same day again costs nothing, and fields the
+ * month's RangeResult already has (rise / set times as soon as the day is done, eclipses once the month is)
+ * are completed right away without touching the ephemeris, and the same goes for the planets once the month's
+ * PlanetOverview is in
+ */
+
+public final class DayDetails {
+	// Eclipse searches can take a while, two threads so they don't hold up another day's times
+	private static final ExecutorService WORKER = Executors.newFixedThreadPool(2, runnable -> {
+		Thread thread = new Thread(runnable, "day-details");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final LocalDate date;
+	private final CompletableFuture<DaySummary> summary;
+	private final CompletableFuture<String> lunation; // eg. "First Quarter: 20:25", empty without one
+	private final CompletableFuture<LocalDate> nextSolarEclipse;
+	private final CompletableFuture<LocalDate> nextLunarEclipse;
+	private final CompletableFuture<String> planets; // PlanetOverview.describe of the day
+
+	// Starts working out the date's details, result is the month's calculations (null if the day isn't done yet)
+	// and planets the month's planets (null if they aren't done yet)
+	public static DayDetails start(LocalDate date, GeoLocation location, RangeResult result, PlanetOverview planets) {
+		int day = result != null ? result.indexOf(date) : -1;
+		int planetDay = planets != null ? planets.indexOf(date) : -1;
+		SwissEphDate swissEphDate = new SwissEphDate(date, location);
+		boolean calculated = day >= 0;
+		boolean complete = calculated && result.isComplete();
+
+		return new DayDetails(date,
+				calculated ? CompletableFuture.completedFuture(result.getDaySummary(day)) : async(swissEphDate::getDaySummary),
+				calculated ? CompletableFuture.completedFuture(lunation(result, day)) : async(() -> lunation(swissEphDate)),
+				complete ? CompletableFuture.completedFuture(result.getNextSolarEclipse(day)) : async(swissEphDate::getNextSolarEclipse),
+				complete ? CompletableFuture.completedFuture(result.getNextLunarEclipse(day)) : async(swissEphDate::getNextLunarEclipse),
+				planetDay >= 0 ? CompletableFuture.completedFuture(planets.describe(planetDay)) : async(() -> swissEphDate.getPlanets().describe(0)));
+	}
+
+	private DayDetails(LocalDate date, CompletableFuture<DaySummary> summary, CompletableFuture<String> lunation,
+			CompletableFuture<LocalDate> nextSolarEclipse, CompletableFuture<LocalDate> nextLunarEclipse, CompletableFuture<String> planets) {
+		this.date = date;
+		this.summary = summary;
+		this.lunation = lunation;
+		this.nextSolarEclipse = nextSolarEclipse;
+		this.nextLunarEclipse = nextLunarEclipse;
+		this.planets = planets;
+	}
+
+	public LocalDate getDate() { return date; }
+	public CompletableFuture<DaySummary> getSummary() { return summary; }
+	public CompletableFuture<String> getLunation() { return lunation; }
+	public CompletableFuture<LocalDate> getNextSolarEclipse() { return nextSolarEclipse; }
+	public CompletableFuture<LocalDate> getNextLunarEclipse() { return nextLunarEclipse; }
+	public CompletableFuture<String> getPlanets() { return planets; }
+
+	// Whether any field failed to be worked out
+	public boolean isFailed() {
+		return summary.isCompletedExceptionally() || lunation.isCompletedExceptionally() || nextSolarEclipse.isCompletedExceptionally()
+				|| nextLunarEclipse.isCompletedExceptionally() || planets.isCompletedExceptionally();
+	}
+
+	private static <T> CompletableFuture<T> async(Supplier<T> supplier) {
+		return CompletableFuture.supplyAsync(supplier, WORKER);
+	}
+
+	private static String lunation(RangeResult result, int day) {
+		LunationTable.Quarter quarter = result.getLunationQuarter(day);
+		return quarter == null ? "" : quarter + ": " + result.getLunationTime(day);
+	}
+
+	private static String lunation(SwissEphDate date) {
+		LunationTable.Lunation lunation = date.getLunation();
+		return lunation == null ? "" : lunation.getQuarter() + ": " + date.offsets.format(lunation.getJulianDay());
+	}
+}
@@ -0,0 +1,91 @@
+package pkg;
+
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Least recently used cache of the details day popups have shown, keyed by location and date like the DayCache
+ * TimeSlots are rebound to new dates every time the month changes, so details kept here are still there when
+ * a month is shown again, and a popup opened a second time reuses the fields already worked out
+ * An entry is only started again when a newer calculation of its day arrives, ie. the slot now has the day,
+ * the month's eclipses or the month's planets where the entry was started without them, or a field failed
+ */
+
+public class DayDetailsCache {
+	public static final int DEFAULT_MAX_SIZE = 256; // about 8 months of days
+
+	private static final DayDetailsCache SHARED = new DayDetailsCache(DEFAULT_MAX_SIZE);
+
+	// What an entry was started from, a newer calculation has a bit the entry doesn't
+	static final int HAS_DAY = 1; // the month's RangeResult had the day
+	static final int HAS_ECLIPSES = 2; // the RangeResult was complete, eclipses included
+	static final int HAS_PLANETS = 4; // the month's PlanetOverview had the day
+
+	private final LinkedHashMap<DayCache.Key, Started> details;
+
+	public DayDetailsCache(int maxSize) {
+		if (maxSize < 1)
+			throw new IllegalArgumentException("Cache size must be at least 1");
+		// Access ordered so the least recently opened day is dropped first
+		details = new LinkedHashMap<DayCache.Key, Started>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<DayCache.Key, Started> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	public static DayDetailsCache shared() { return SHARED; }
+
+	// The date's details, started from the month's result and planets (either null if not done yet) unless
+	// the cached ones were started from calculations at least as complete
+	public DayDetails get(LocalDate date, GeoLocation location, RangeResult result, PlanetOverview planets) {
+		DayCache.Key key = new DayCache.Key(location, date);
+		int from = calculated(date, result, planets);
+		synchronized (details) {
+			Started entry = details.get(key);
+			if (entry != null && (from & ~entry.from) == 0 && !entry.details.isFailed())
+				return entry.details;
+		}
+		DayDetails started = DayDetails.start(date, location, result, planets);
+		synchronized (details) {
+			details.put(key, new Started(started, from));
+		}
+		return started;
+	}
+
+	// Drops every entry, eg. when they were started from a snapshot that turned out to be out of date
+	public void clear() {
+		synchronized (details) {
+			details.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (details) {
+			return details.size();
+		}
+	}
+
+	private static int calculated(LocalDate date, RangeResult result, PlanetOverview planets) {
+		int from = 0;
+		if (result != null && result.indexOf(date) >= 0)
+			from |= result.isComplete() ? HAS_DAY | HAS_ECLIPSES : HAS_DAY;
+		if (planets != null && planets.indexOf(date) >= 0)
+			from |= HAS_PLANETS;
+		return from;
+	}
+
+	private static final class Started {
+		final DayDetails details;
+		final int from;
+
+		Started(DayDetails details, int from) {
+			this.details = details;
+			this.from = from;
+		}
+	}
+}
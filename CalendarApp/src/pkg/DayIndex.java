@@ -0,0 +1,148 @@
+package pkg;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * The per day values almanac queries look at, for one location over a date range of any length, in primitive columns
+ * Rise and set times are kept as local minutes of the day, and eclipses and the day of the week as bytes, so a query
+ * only compares ints and bytes and never formats a time or makes a LocalDate until it has found a match
+ * Built from RangeCalculator results a month at a time, the months calculated in parallel with fork / join, so the
+ * days also end up in the DayCache and AlmanacStore and indexing the same range again later is quick
+ */
+
+public final class DayIndex {
+	static final byte SOLAR_ECLIPSE = 1;
+	static final byte LUNAR_ECLIPSE = 2;
+
+	final LocalDate start;
+	final int days;
+	final GeoLocation location;
+
+	final byte[] phase; // MoonPhase ordinal
+	final byte[] quarter; // LunationTable.Quarter ordinal of a lunation during the day, -1 if none
+	final byte[] dayOfWeek; // DayOfWeek value, 1 (Monday) - 7 (Sunday)
+	final byte[] eclipses; // SOLAR_ECLIPSE and LUNAR_ECLIPSE bits
+	final int[] minutes; // [event * days + day], event the DaySummary.Event ordinal, local minute of the day or -1 if none
+	final int[] dayLength; // minutes
+
+	DayIndex(LocalDate start, int days, GeoLocation location) {
+		this.start = start;
+		this.days = days;
+		this.location = location;
+		phase = new byte[days];
+		quarter = new byte[days];
+		dayOfWeek = new byte[days];
+		eclipses = new byte[days];
+		minutes = new int[DaySummary.Event.values().length * days];
+		dayLength = new int[days];
+	}
+
+	// Indexes a range already calculated, eg. the month on screen
+	public static DayIndex of(RangeResult result) {
+		DayIndex index = new DayIndex(result.getStart(), result.size(), result.getLocation());
+		index.copy(result, 0);
+		return index;
+	}
+
+	// Calculates and indexes every day from start to end (both inclusive) at the given location
+	public static DayIndex build(RangeCalculator calculator, LocalDate start, LocalDate end, GeoLocation location) {
+		return build(calculator, start, end, location, ForkJoinPool.commonPool());
+	}
+
+	public static DayIndex build(RangeCalculator calculator, LocalDate start, LocalDate end, GeoLocation location, ForkJoinPool pool) {
+		int days = (int) ChronoUnit.DAYS.between(start, end) + 1;
+		if (days < 1)
+			throw new IllegalArgumentException("End date " + end + " is before start date " + start);
+
+		DayIndex index = new DayIndex(start, days, location);
+		List<LocalDate> months = new ArrayList<>();
+		for (LocalDate from = start; !from.isAfter(end); from = from.plusMonths(1).withDayOfMonth(1))
+			months.add(from);
+		pool.invoke(new Months(calculator, index, months, end, 0, months.size()));
+		return index;
+	}
+
+	// Splits its months in half until there is one left, which it calculates and copies in
+	private static class Months extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final RangeCalculator calculator;
+		private final DayIndex index;
+		private final List<LocalDate> months; // first day of each month in the range, the first one can be later in its month
+		private final LocalDate end;
+		private final int first;
+		private final int last; // exclusive
+
+		Months(RangeCalculator calculator, DayIndex index, List<LocalDate> months, LocalDate end, int first, int last) {
+			this.calculator = calculator;
+			this.index = index;
+			this.months = months;
+			this.end = end;
+			this.first = first;
+			this.last = last;
+		}
+
+		@Override
+		protected void compute() {
+			if (last - first > 1) {
+				int middle = (first + last) >>> 1;
+				invokeAll(new Months(calculator, index, months, end, first, middle), new Months(calculator, index, months, end, middle, last));
+				return;
+			}
+			if (first >= last)
+				return;
+
+			LocalDate from = months.get(first);
+			LocalDate to = from.withDayOfMonth(from.lengthOfMonth());
+			RangeResult result = calculator.calculate(from, to.isAfter(end) ? end : to, index.location);
+			index.copy(result, (int) ChronoUnit.DAYS.between(index.start, from));
+		}
+	}
+
+	// Copies a calculated range in, its first day going to index day offset
+	private void copy(RangeResult result, int offset) {
+		OffsetTable offsets = result.getOffsets();
+		long epochDay = result.getStart().toEpochDay();
+		for (int day = 0; day < result.size(); day++) {
+			int i = offset + day;
+			phase[i] = result.phase[day];
+			quarter[i] = result.lunationQuarter[day];
+			dayOfWeek[i] = (byte) result.getDate(day).getDayOfWeek().getValue();
+			eclipses[i] = (byte) ((result.nextSolarEclipseDate[day] == epochDay + day ? SOLAR_ECLIPSE : 0)
+					| (result.nextLunarEclipseDate[day] == epochDay + day ? LUNAR_ECLIPSE : 0));
+			minutes[DaySummary.Event.SUNRISE.ordinal() * days + i] = offsets.minuteOfDay(result.sunrise[day]);
+			minutes[DaySummary.Event.SUNSET.ordinal() * days + i] = offsets.minuteOfDay(result.sunset[day]);
+			minutes[DaySummary.Event.MOONRISE.ordinal() * days + i] = offsets.minuteOfDay(result.moonrise[day]);
+			minutes[DaySummary.Event.MOONSET.ordinal() * days + i] = offsets.minuteOfDay(result.moonset[day]);
+			dayLength[i] = (int) Math.round(result.dayLength[day] * 1440);
+		}
+	}
+
+	// *** Range information
+	public int size() { return days; }
+	public LocalDate getStart() { return start; }
+	public LocalDate getEnd() { return start.plusDays(days - 1); }
+	public GeoLocation getLocation() { return location; }
+	public LocalDate getDate(int day) { return start.plusDays(day); }
+
+	// Returns the index of a date in the range or -1 if it is not covered
+	public int indexOf(LocalDate date) {
+		long day = ChronoUnit.DAYS.between(start, date);
+		return day >= 0 && day < days ? (int) day : -1;
+	}
+
+	// *** Per day values
+	public MoonPhase getMoonPhase(int day) { return MoonPhase.values()[phase[day]]; }
+	public LunationTable.Quarter getLunationQuarter(int day) { return quarter[day] < 0 ? null : LunationTable.Quarter.values()[quarter[day]]; }
+	public DayOfWeek getDayOfWeek(int day) { return DayOfWeek.of(dayOfWeek[day]); }
+	public boolean isSolarEclipse(int day) { return (eclipses[day] & SOLAR_ECLIPSE) != 0; }
+	public boolean isLunarEclipse(int day) { return (eclipses[day] & LUNAR_ECLIPSE) != 0; }
+	// Local minute of the day (0 - 1439) an event happens at, -1 if it doesn't happen that day
+	public int getMinuteOfDay(DaySummary.Event e, int day) { return minutes[e.ordinal() * days + day]; }
+	public int getDayLengthMinutes(int day) { return dayLength[day]; }
+}
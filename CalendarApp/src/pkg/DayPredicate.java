@@ -0,0 +1,101 @@
+package pkg;
+
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalTime;
+
+/*
+ * A condition on one day of a DayIndex for an AlmanacQuery, eg. a full moon, a weekend or moonset after sunrise
+ * Conditions combine with and, or and negate, eg. quarter(FULL_MOON).and(weekend())
+ * Times are local times of the day, a time condition on an event that doesn't happen that day is never true
+ */
+
+@FunctionalInterface
+public interface DayPredicate {
+	boolean test(DayIndex index, int day);
+
+	default DayPredicate and(DayPredicate other) {
+		return (index, day) -> test(index, day) && other.test(index, day);
+	}
+
+	default DayPredicate or(DayPredicate other) {
+		return (index, day) -> test(index, day) || other.test(index, day);
+	}
+
+	default DayPredicate negate() {
+		return (index, day) -> !test(index, day);
+	}
+
+	// *** Moon
+
+	// The day's moon phase as shown in the grid, a few days each lunation, see quarter for the exact day
+	static DayPredicate phase(MoonPhase phase) {
+		byte ordinal = (byte) phase.ordinal();
+		return (index, day) -> index.phase[day] == ordinal;
+	}
+
+	// The exact new moon, quarter or full moon falls on the day
+	static DayPredicate quarter(LunationTable.Quarter quarter) {
+		byte ordinal = (byte) quarter.ordinal();
+		return (index, day) -> index.quarter[day] == ordinal;
+	}
+
+	static DayPredicate solarEclipse() {
+		return (index, day) -> (index.eclipses[day] & DayIndex.SOLAR_ECLIPSE) != 0;
+	}
+
+	static DayPredicate lunarEclipse() {
+		return (index, day) -> (index.eclipses[day] & DayIndex.LUNAR_ECLIPSE) != 0;
+	}
+
+	// *** Calendar
+
+	static DayPredicate dayOfWeek(DayOfWeek... days) {
+		int mask = 0;
+		for (DayOfWeek d : days)
+			mask |= 1 << d.getValue();
+		int bits = mask;
+		return (index, day) -> (bits & 1 << index.dayOfWeek[day]) != 0;
+	}
+
+	static DayPredicate weekend() {
+		return dayOfWeek(DayOfWeek.SATURDAY, DayOfWeek.SUNDAY);
+	}
+
+	// *** Rise and set times
+
+	static DayPredicate happens(DaySummary.Event e) {
+		int column = e.ordinal();
+		return (index, day) -> index.minutes[column * index.days + day] >= 0;
+	}
+
+	// The event happens at the time or later, to the minute
+	static DayPredicate after(DaySummary.Event e, LocalTime time) {
+		int column = e.ordinal(), minute = time.getHour() * 60 + time.getMinute();
+		return (index, day) -> index.minutes[column * index.days + day] >= minute;
+	}
+
+	// The event happens before the time, to the minute
+	static DayPredicate before(DaySummary.Event e, LocalTime time) {
+		int column = e.ordinal(), minute = time.getHour() * 60 + time.getMinute();
+		return (index, day) -> {
+			int at = index.minutes[column * index.days + day];
+			return at >= 0 && at < minute;
+		};
+	}
+
+	// Both events happen and the first one is later in the day, eg. later(MOONSET, SUNRISE) for moonset after sunrise
+	static DayPredicate later(DaySummary.Event e, DaySummary.Event than) {
+		int column = e.ordinal(), other = than.ordinal();
+		return (index, day) -> {
+			int at = index.minutes[other * index.days + day];
+			return at >= 0 && index.minutes[column * index.days + day] > at;
+		};
+	}
+
+	// Sunrise to sunset takes at least this long, 24 hours on a polar day
+	static DayPredicate dayAtLeast(Duration length) {
+		long minutes = length.toMinutes();
+		return (index, day) -> index.dayLength[day] >= minutes;
+	}
+}
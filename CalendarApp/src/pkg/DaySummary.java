@@ -0,0 +1,190 @@
+package pkg;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import swisseph.*;
+
+/*
+ * Everything the calendar shows for one day at one location, worked out in a single call
+ * The day is the local day in the location's time zone, from local midnight to the next, and each event is
+ * the first one during it
+ * Rise and set times are kept as julian dates (UT) and the moon as % lit, all primitives, and nothing
+ * is turned into a string until it is displayed or exported
+ * An event that doesn't happen during the day (the body stays above or below the horizon, or the moon's next
+ * rise is after midnight) has the NO_EVENT status
+ * Twilight, solar noon and day length come out of the same sweep of the sun as sunrise and sunset, a twilight
+ * whose altitude the sun doesn't reach that day (eg. no astronomical dusk in a northern summer) is NaN like a
+ * missing sunrise
+ */
+
+public final class DaySummary {
+	public enum Event { SUNRISE, SUNSET, MOONRISE, MOONSET }
+
+	// Dawn and dusk are when the sun's centre is this far below the horizon, without refraction like swe_rise_trans
+	public enum Twilight {
+		CIVIL(-6), NAUTICAL(-12), ASTRONOMICAL(-18);
+
+		static final double[] ALTITUDES = { -6, -12, -18 }; // in order, for the sweep
+
+		private final double altitude;
+
+		Twilight(double altitude) {
+			this.altitude = altitude;
+		}
+
+		public double getAltitude() { return altitude; }
+
+		@Override
+		public String toString() {
+			return name().charAt(0) + name().substring(1).toLowerCase();
+		}
+	}
+
+	static final CalculationMetrics METRICS = CalculationMetrics.shared();
+
+	// Event statuses
+	public static final int FOUND = 0;
+	public static final int NO_EVENT = 1;
+
+	private final LocalDate date;
+	private final OffsetTable offsets; // local time conversions, covering at least this day
+	private final double sunrise;
+	private final double sunset;
+	private final double moonrise;
+	private final double moonset;
+	private final double illumination;
+	private final MoonPhase phase;
+	private final double solarNoon;
+	private final double dayLength; // days the sun is up during the day, 0 - 1 (a little more or less on a clock change)
+	private final double[] dawn; // by Twilight ordinal
+	private final double[] dusk;
+
+	DaySummary(LocalDate date, OffsetTable offsets, double sunrise, double sunset, double moonrise, double moonset,
+			double illumination, MoonPhase phase, double solarNoon, double dayLength, double[] dawn, double[] dusk) {
+		this.date = date;
+		this.offsets = offsets;
+		this.sunrise = sunrise;
+		this.sunset = sunset;
+		this.moonrise = moonrise;
+		this.moonset = moonset;
+		this.illumination = illumination;
+		this.phase = phase;
+		this.solarNoon = solarNoon;
+		this.dayLength = dayLength;
+		this.dawn = dawn;
+		this.dusk = dusk;
+	}
+
+	// Calculates the local day from start to end (julian dates UT) with one SwissEph, sweeping the sun and moon over
+	// just that day, the arrays and buffers are scratch space reused by the caller between days
+	// The phase comes from the LunationTable, % lit is still calculated for display
+	static DaySummary calculate(SwissEph sw, LocalDate date, OffsetTable offsets, double start, double end, GeoLocation location,
+			double[] data, StringBuffer error) {
+		RiseSetSweep sweep = new RiseSetSweep(sw, location);
+		return calculate(sw, date, offsets, start, end, data, error, sweepSun(sweep, start, end), sweep(sweep, SwissEphDate.MOON, start, end));
+	}
+
+	// Same as above with the times taken from sweeps of the sun (see sweepSun) and moon that cover the day
+	static DaySummary calculate(SwissEph sw, LocalDate date, OffsetTable offsets, double start, double end,
+			double[] data, StringBuffer error, RiseSetSweep.Events sun, RiseSetSweep.Events moon) {
+		double lit = moonPhasePercent(sw, start, data, error);
+		Twilight[] twilights = Twilight.values();
+		double[] dawn = new double[twilights.length], dusk = new double[twilights.length];
+		for (int i = 0; i < twilights.length; i++) {
+			dawn[i] = sun.up(i, start, end);
+			dusk[i] = sun.down(i, start, end);
+		}
+		return new DaySummary(date, offsets, sun.rise(start, end), sun.set(start, end), moon.rise(start, end), moon.set(start, end),
+				lit, LunationTable.shared().phaseOn(sw, start, end), sun.transit(start, end), sun.timeUp(start, end), dawn, dusk);
+	}
+
+	// *** Single calculations shared by everything that works out rise / set times and phases
+
+	// % of the moon lit at a julian date
+	static double moonPhasePercent(SwissEph sw, double julianDate, double[] data, StringBuffer error) {
+		long start = METRICS.begin();
+		sw.swe_pheno(julianDate, SwissEphDate.MOON, CalculationProfile.active().getFlags(), data, error);
+		METRICS.end(CalculationMetrics.Operation.MOON_PHASE, start);
+		return data[1];
+	}
+
+	// Every rise and set of a body for the days starting at julian dates from to to (exclusive), and its crossings
+	// of any other altitudes
+	static RiseSetSweep.Events sweep(RiseSetSweep sweep, int body, double from, double to, double... altitudes) {
+		long start = METRICS.begin();
+		RiseSetSweep.Events events = sweep.sweep(body, from, to, altitudes);
+		METRICS.end(CalculationMetrics.Operation.RISE_SET_SWEEP, start);
+		return events;
+	}
+
+	// The sun's rises, sets, transits and every twilight's dawns and dusks in one sweep
+	static RiseSetSweep.Events sweepSun(RiseSetSweep sweep, double from, double to) {
+		return sweep(sweep, SwissEphDate.SUN, from, to, Twilight.ALTITUDES);
+	}
+
+	// *** Values
+	public LocalDate getDate() { return date; }
+	public ZoneId getZone() { return offsets.getZone(); }
+	public double getSunrise() { return sunrise; }
+	public double getSunset() { return sunset; }
+	public double getMoonrise() { return moonrise; }
+	public double getMoonset() { return moonset; }
+	public double getIllumination() { return illumination; }
+	public MoonPhase getMoonPhase() { return phase; }
+	public double getSolarNoon() { return solarNoon; }
+	public double getDayLength() { return dayLength; }
+	public double getDawn(Twilight twilight) { return dawn[twilight.ordinal()]; }
+	public double getDusk(Twilight twilight) { return dusk[twilight.ordinal()]; }
+
+	// Julian date (UT) of an event, NaN when it has the NO_EVENT status
+	public double getJulianDay(Event e) {
+		switch (e) {
+		case SUNRISE: return sunrise;
+		case SUNSET: return sunset;
+		case MOONRISE: return moonrise;
+		default: return moonset;
+		}
+	}
+
+	public int getStatus(Event e) {
+		return Double.isNaN(getJulianDay(e)) ? NO_EVENT : FOUND;
+	}
+
+	// Local minute of the day (0 - 1439) an event happens at, -1 when it has the NO_EVENT status
+	public int getMinuteOfDay(Event e) {
+		return offsets.minuteOfDay(getJulianDay(e));
+	}
+
+	// Local date and time of an event, null when it has the NO_EVENT status
+	public LocalDateTime getLocalDateTime(Event e) {
+		return offsets.toLocalDateTime(getJulianDay(e));
+	}
+
+	// Local time of an event for display eg. 18:32, or "None"
+	public String format(Event e) {
+		return offsets.format(getJulianDay(e));
+	}
+
+	public String formatSolarNoon() { return offsets.format(solarNoon); }
+	public String formatDayLength() { return formatDuration(dayLength); }
+	public String formatDawn(Twilight twilight) { return offsets.format(getDawn(twilight)); }
+	public String formatDusk(Twilight twilight) { return offsets.format(getDusk(twilight)); }
+
+	// Hours and minutes of a length of time in days, eg. 10:52 or 24:00
+	public static String formatDuration(double days) {
+		long minutes = Math.round(days * 1440);
+		return (minutes / 60) + ":" + (minutes % 60 < 10 ? "0" : "") + minutes % 60;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder().append(date).append(" sunrise ").append(format(Event.SUNRISE))
+				.append(" sunset ").append(format(Event.SUNSET)).append(" moonrise ").append(format(Event.MOONRISE))
+				.append(" moonset ").append(format(Event.MOONSET)).append(' ').append(phase)
+				.append(" noon ").append(formatSolarNoon()).append(" day ").append(formatDayLength());
+		for (Twilight twilight : Twilight.values())
+			text.append(' ').append(twilight).append(' ').append(formatDawn(twilight)).append(" - ").append(formatDusk(twilight));
+		return text.toString();
+	}
+}
@@ -0,0 +1,264 @@
+package pkg;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import swisseph.*;
+
+/*
+ * Catalog of every solar or lunar eclipse in the years the app supports (1900 - 2100)
+ * The catalog is filled from the global eclipse searches once per process, a decade at a time as the
+ * dates are first needed, and keeps each eclipse's attributes and contact times
+ * Whether an eclipse can be seen from a location is only worked out the first time that location asks,
+ * after that "next eclipse after a date" and "is there an eclipse on a date" are binary searches
+ * Only the MAX_LOCATIONS locations asked about most recently are remembered, so a server taking any
+ * location doesn't keep every one it was ever asked about
+ */
+
+public class EclipseCatalog {
+	public enum Kind { SOLAR, LUNAR }
+
+	static final int FIRST_YEAR = 1900;
+	static final int SEGMENT_YEARS = 10;
+	static final int SEGMENTS = 21; // 1900 - 2109, a little past 2100 so "next eclipse" works at the end of the range
+	static final int MAX_LOCATIONS = 256;
+
+	private static final EclipseCatalog SOLAR = new EclipseCatalog(Kind.SOLAR, EphemerisEngine.shared());
+	private static final EclipseCatalog LUNAR = new EclipseCatalog(Kind.LUNAR, EphemerisEngine.shared());
+	private static final CalculationMetrics METRICS = CalculationMetrics.shared();
+
+	// Marks an eclipse that has been checked and can't be seen from a location
+	private static final LocalEclipse NOT_VISIBLE = new LocalEclipse(null, null, null);
+
+	private final Kind kind;
+	private final EphemerisEngine engine;
+	private final AtomicReferenceArray<Eclipse[]> segments = new AtomicReferenceArray<>(SEGMENTS);
+	// Access ordered so the least recently used location is dropped once there are more than MAX_LOCATIONS
+	private final Map<GeoLocation, Map<Eclipse, LocalEclipse>> local = new LinkedHashMap<GeoLocation, Map<Eclipse, LocalEclipse>>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<GeoLocation, Map<Eclipse, LocalEclipse>> eldest) {
+			return size() > MAX_LOCATIONS;
+		}
+	};
+
+	EclipseCatalog(Kind kind, EphemerisEngine engine) {
+		this.kind = kind;
+		this.engine = engine;
+	}
+
+	public static EclipseCatalog solar() { return SOLAR; }
+	public static EclipseCatalog lunar() { return LUNAR; }
+
+	public Kind getKind() { return kind; }
+
+	// Julian date range the catalog covers, searches outside of it return null
+	public static double firstJulianDay() { return EphemerisEngine.julianDay(FIRST_YEAR, 1, 1); }
+	public static double lastJulianDay() { return EphemerisEngine.julianDay(FIRST_YEAR + SEGMENTS * SEGMENT_YEARS, 1, 1); }
+
+	// *** Lookups
+
+	// Returns the first eclipse anywhere on earth with its maximum at or after the julian date
+	public Eclipse nextGlobal(double julianDay) {
+		for (int s = segmentOf(julianDay); s >= 0 && s < SEGMENTS; s++) {
+			Eclipse[] eclipses = segment(s);
+			int i = firstAtOrAfter(eclipses, julianDay);
+			if (i < eclipses.length)
+				return eclipses[i];
+		}
+		return null;
+	}
+
+	// Returns the first eclipse visible from the location with its local maximum at or after the julian date
+	public LocalEclipse nextLocal(double julianDay, GeoLocation location) {
+		// The local maximum can be a little off the global one so start with the eclipse before, if the catalog has one
+		Eclipse candidate = nextGlobal(Math.max(julianDay - 1, firstJulianDay()));
+		while (candidate != null) {
+			LocalEclipse l = circumstances(candidate, location);
+			if (l != NOT_VISIBLE && l.getMaximum() >= julianDay)
+				return l;
+			candidate = nextGlobal(candidate.getMaximum() + 1);
+		}
+		return null;
+	}
+
+	// Returns whether an eclipse visible from the location has its maximum on the date, local to the location
+	public boolean isEclipseOn(LocalDate date, GeoLocation location) {
+		double julianDay = EphemerisEngine.julianDay(date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+		OffsetTable offsets = OffsetTable.covering(location.getZone(), julianDay - 1, julianDay + 2);
+		LocalEclipse next = nextLocal(offsets.startOfDay(date), location);
+		return next != null && offsets.toLocalDate(next.getMaximum()).equals(date);
+	}
+
+	// Whether the julian date can be answered from the catalog
+	public static boolean covers(double julianDay) {
+		return julianDay >= firstJulianDay() && julianDay < lastJulianDay() - 365;
+	}
+
+	// *** Global catalog
+
+	private static int segmentOf(double julianDay) {
+		int year = EphemerisEngine.toLocalDate(julianDay).getYear();
+		return year < FIRST_YEAR ? -1 : (year - FIRST_YEAR) / SEGMENT_YEARS;
+	}
+
+	private static int firstAtOrAfter(Eclipse[] eclipses, double julianDay) {
+		int low = 0, high = eclipses.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (eclipses[mid].getMaximum() < julianDay)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	private Eclipse[] segment(int s) {
+		Eclipse[] eclipses = segments.get(s);
+		if (eclipses != null)
+			return eclipses;
+		// Not locked, threads after the same decade at the same time each search it and the first one in is kept,
+		// a duplicate search is cheaper than threads queueing on a lock while the engine does one
+		eclipses = engine.compute(sw -> searchSegment(sw, s));
+		return segments.compareAndSet(s, null, eclipses) ? eclipses : segments.get(s);
+	}
+
+	// Steps the global eclipse search through the decade, one call per eclipse
+	private Eclipse[] searchSegment(SwissEph sw, int s) {
+		int startYear = FIRST_YEAR + s * SEGMENT_YEARS;
+		double start = EphemerisEngine.julianDay(startYear, 1, 1);
+		double end = EphemerisEngine.julianDay(startYear + SEGMENT_YEARS, 1, 1);
+		List<Eclipse> found = new ArrayList<>();
+		StringBuffer error = new StringBuffer();
+
+		double from = start;
+		while (true) {
+			double[] tret = new double[10], attr = new double[20];
+			int type;
+			long timer = METRICS.begin();
+			if (kind == Kind.SOLAR) {
+				type = sw.swe_sol_eclipse_when_glob(from, CalculationProfile.active().getFlags(), 0, tret, 0, error);
+				if (type >= 0)
+					sw.swe_sol_eclipse_where(tret[0], CalculationProfile.active().getFlags(), new double[10], attr, error);
+			} else {
+				type = sw.swe_lun_eclipse_when(from, CalculationProfile.active().getFlags(), 0, tret, 0, error);
+				if (type >= 0)
+					sw.swe_lun_eclipse_how(tret[0], CalculationProfile.active().getFlags(), new double[3], attr, error);
+			}
+			METRICS.end(CalculationMetrics.Operation.ECLIPSE_SEARCH, timer);
+			// An eclipse belongs to the segment its maximum falls in
+			if (type < 0 || tret[0] >= end)
+				break;
+			if (tret[0] >= start)
+				found.add(new Eclipse(kind, type, tret, attr));
+			from = tret[0] + 1;
+		}
+		return found.toArray(new Eclipse[0]);
+	}
+
+	// *** Local circumstances
+
+	// Works out if an eclipse is visible from a location, the local search from just before the eclipse either
+	// finds that eclipse or the next visible one, so every eclipse passed over is marked not visible as well
+	private LocalEclipse circumstances(Eclipse eclipse, GeoLocation location) {
+		Map<Eclipse, LocalEclipse> known;
+		synchronized (local) {
+			known = local.computeIfAbsent(location, l -> new IdentityHashMap<>());
+		}
+		synchronized (known) {
+			LocalEclipse l = known.get(eclipse);
+			if (l != null)
+				return l;
+		}
+
+		// Searched without the lock like the segments, the first results in for an eclipse are kept
+		double[] position = location.toArray();
+		double[] tret = new double[10], attr = new double[20];
+		int type = engine.compute(sw -> {
+			long start = METRICS.begin();
+			int found = kind == Kind.SOLAR
+					? sw.swe_sol_eclipse_when_loc(eclipse.getBegin() - 1, CalculationProfile.active().getFlags(), position, tret, attr, 0, new StringBuffer())
+					: sw.swe_lun_eclipse_when_loc(eclipse.getBegin() - 1, CalculationProfile.active().getFlags(), position, tret, attr, 0, new StringBuffer());
+			METRICS.end(CalculationMetrics.Operation.ECLIPSE_LOCAL, start);
+			return found;
+		});
+
+		Map<Eclipse, LocalEclipse> found = new IdentityHashMap<>();
+		if (type < 0) {
+			found.put(eclipse, NOT_VISIBLE);
+		} else {
+			for (Eclipse e = eclipse; e != null && e.getBegin() - 1 <= tret[0]; e = nextGlobal(e.getMaximum() + 1)) {
+				if (tret[0] <= e.getEnd() + 1) {
+					found.put(e, new LocalEclipse(e, tret, attr));
+					break;
+				}
+				found.put(e, NOT_VISIBLE);
+			}
+		}
+		synchronized (known) {
+			for (Map.Entry<Eclipse, LocalEclipse> entry : found.entrySet())
+				known.putIfAbsent(entry.getKey(), entry.getValue());
+			return known.getOrDefault(eclipse, NOT_VISIBLE);
+		}
+	}
+
+	// *** Catalog entries
+
+	// An eclipse as seen from anywhere on earth
+	public static class Eclipse {
+		private final Kind kind;
+		private final int type; // SweConst.SE_ECL_* flags
+		private final double[] tret;
+		private final double[] attr;
+
+		Eclipse(Kind kind, int type, double[] tret, double[] attr) {
+			this.kind = kind;
+			this.type = type;
+			this.tret = tret;
+			this.attr = attr;
+		}
+
+		public Kind getKind() { return kind; }
+		public int getType() { return type; }
+		public double getMaximum() { return tret[0]; }
+		// First and last contact, for lunar eclipses the penumbral ones
+		public double getBegin() { return kind == Kind.SOLAR ? tret[2] : tret[6]; }
+		public double getEnd() { return kind == Kind.SOLAR ? tret[3] : tret[7]; }
+		public double getMagnitude() { return attr[0]; }
+		public double[] getContactTimes() { return tret.clone(); }
+		public double[] getAttributes() { return attr.clone(); }
+		public LocalDate getDate() { return EphemerisEngine.toLocalDate(tret[0]); }
+
+		@Override
+		public String toString() {
+			return kind + " eclipse " + getDate() + Arrays.toString(Arrays.copyOf(tret, 4));
+		}
+	}
+
+	// An eclipse as seen from one location, times are the local contacts from swe_*_eclipse_when_loc
+	public static class LocalEclipse {
+		private final Eclipse global;
+		private final double[] tret;
+		private final double[] attr;
+
+		LocalEclipse(Eclipse global, double[] tret, double[] attr) {
+			this.global = global;
+			this.tret = tret;
+			this.attr = attr;
+		}
+
+		public Eclipse getGlobal() { return global; }
+		public double getMaximum() { return tret[0]; }
+		public double getMagnitude() { return attr[0]; }
+		public double[] getContactTimes() { return tret.clone(); }
+		public double[] getAttributes() { return attr.clone(); }
+		public LocalDate getDate() { return EphemerisEngine.toLocalDate(tret[0]); }
+	}
+}
@@ -0,0 +1,118 @@
+package pkg;
+
+import java.time.LocalDate;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import swisseph.*;
+
+/*
+ * Shared pool of SwissEph instances used for every ephemeris calculation in the app
+ * A SwissEph object is expensive to create (ephemeris tables, file handles) and is not thread safe,
+ * so instead of every SwissEphDate owning one, calculations borrow an instance from here, use it, and hand it back
+ * The pool is bounded, once every instance is in use further callers wait until one is returned
+ */
+
+public final class EphemerisEngine {
+	// Pool used by the whole app, sized to the number of cores since calculations are cpu bound
+	private static final EphemerisEngine SHARED = new EphemerisEngine(Runtime.getRuntime().availableProcessors());
+
+	private final BlockingQueue<SwissEph> idle;
+	private final AtomicInteger created = new AtomicInteger();
+	private final int maxInstances;
+
+	// A unit of work performed with a borrowed SwissEph, the instance must not escape the call
+	// and the calculation must not borrow a second instance or a full pool could deadlock
+	public interface Calculation<T> {
+		T calculate(SwissEph sw);
+	}
+
+	// Same as above but for calculations returning a primitive double, avoids boxing on hot paths
+	public interface DoubleCalculation {
+		double calculate(SwissEph sw);
+	}
+
+	public EphemerisEngine(int maxInstances) {
+		if (maxInstances < 1)
+			throw new IllegalArgumentException("Engine needs at least one SwissEph instance");
+		this.maxInstances = maxInstances;
+		idle = new ArrayBlockingQueue<>(maxInstances);
+	}
+
+	public static EphemerisEngine shared() { return SHARED; }
+
+	public int getMaxInstances() { return maxInstances; }
+	public int getCreatedInstances() { return created.get(); }
+
+	// Runs the calculation with a pooled SwissEph, blocking if every instance is busy
+	public <T> T compute(Calculation<T> calculation) {
+		SwissEph sw = borrow();
+		try {
+			return calculation.calculate(sw);
+		} finally {
+			release(sw);
+		}
+	}
+
+	public double computeDouble(DoubleCalculation calculation) {
+		SwissEph sw = borrow();
+		try {
+			return calculation.calculate(sw);
+		} finally {
+			release(sw);
+		}
+	}
+
+	// Takes an idle instance, creates a new one while under the limit, otherwise waits for one to come back
+	private SwissEph borrow() {
+		long start = System.nanoTime();
+		try {
+			return take();
+		} finally {
+			CalculationMetrics.shared().record(CalculationMetrics.Operation.ENGINE_WAIT, System.nanoTime() - start);
+		}
+	}
+
+	private SwissEph take() {
+		SwissEph sw = idle.poll();
+		if (sw != null)
+			return sw;
+
+		while (true) {
+			int count = created.get();
+			if (count >= maxInstances)
+				break;
+			if (created.compareAndSet(count, count + 1))
+				return CalculationProfile.active().newSwissEph();
+		}
+
+		try {
+			return idle.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for an ephemeris instance", e);
+		}
+	}
+
+	private void release(SwissEph sw) {
+		idle.offer(sw);
+	}
+
+	// *** Julian day helpers, these replace the per object SweDate so they are safe to call from any thread
+
+	// Julian day at 0h UT of the given gregorian date
+	public static double julianDay(int year, int month, int day) {
+		return SweDate.getJulDay(year, month, day, 0, SweDate.SE_GREG_CAL);
+	}
+
+	// Gregorian UT date a julian day falls on
+	public static LocalDate toLocalDate(double julianDay) {
+		return LocalDate.ofEpochDay((long) Math.floor(julianDay + 0.5) - 2440588);
+	}
+
+	// Fractional UT hour of the day a julian day falls on, eg. 13.5 for 13:30
+	public static double toHour(double julianDay) {
+		double shifted = julianDay + 0.5;
+		return (shifted - Math.floor(shifted)) * 24;
+	}
+}
@@ -0,0 +1,75 @@
+package pkg;
+
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/*
+ * Immutable observer position on earth used by the range calculations and caches
+ * Longitude is east positive, latitude north positive and elevation is in metres above sea level
+ * The time zone decides where each local day starts and how times are shown, when none is given it is a fixed
+ * offset of whole hours from the longitude (the app's old behaviour, no daylight saving)
+ */
+
+public final class GeoLocation {
+	private final double longitude;
+	private final double latitude;
+	private final double elevation;
+	private final ZoneId zone;
+
+	public GeoLocation(double longitude, double latitude, double elevation) {
+		this(longitude, latitude, elevation, defaultZone(longitude));
+	}
+
+	public GeoLocation(double longitude, double latitude, double elevation, ZoneId zone) {
+		this.longitude = longitude;
+		this.latitude = latitude;
+		this.elevation = elevation;
+		this.zone = zone;
+	}
+
+	// Fixed offset from the longitude, -119.5 is UTC-07:00
+	public static ZoneId defaultZone(double longitude) {
+		return ZoneOffset.ofHours((int) (longitude / 15));
+	}
+
+	public double getLongitude() { return longitude; }
+	public double getLatitude() { return latitude; }
+	public double getElevation() { return elevation; }
+	public ZoneId getZone() { return zone; }
+
+	// Same position in another time zone
+	public GeoLocation withZone(ZoneId zone) {
+		return new GeoLocation(longitude, latitude, elevation, zone);
+	}
+
+	// Position array in the order the swiss eph library expects (longitude, latitude, elevation)
+	public double[] toArray() {
+		return new double[] { longitude, latitude, elevation };
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		if (!(o instanceof GeoLocation))
+			return false;
+		GeoLocation other = (GeoLocation) o;
+		return Double.compare(longitude, other.longitude) == 0 && Double.compare(latitude, other.latitude) == 0
+				&& Double.compare(elevation, other.elevation) == 0 && zone.equals(other.zone);
+	}
+
+	@Override
+	public int hashCode() {
+		int result = Double.hashCode(longitude);
+		result = 31 * result + Double.hashCode(latitude);
+		result = 31 * result + Double.hashCode(elevation);
+		result = 31 * result + zone.hashCode();
+		return result;
+	}
+
+	// Position only, as written in CSV files
+	@Override
+	public String toString() {
+		return longitude + "," + latitude + "," + elevation;
+	}
+}
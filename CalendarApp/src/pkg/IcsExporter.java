@@ -0,0 +1,320 @@
+package pkg;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import swisseph.*;
+
+/*
+ * Writes astronomical events as an iCalendar (.ics) feed calendar clients can subscribe to: new moons, quarters and
+ * full moons, the eclipses that can be seen from a location, and optionally its sunrises and sunsets
+ * Events come from where they are found instead of sampling day by day: lunations from the LunationTable, eclipses
+ * from the EclipseCatalog and rises and sets from one RiseSetSweep of the sun over each chunk
+ * The range is split into chunks of CHUNK_DAYS worked out in parallel, each chunk's events put in time order and
+ * written out strictly in order, with only a couple of chunks per thread in flight so 1900 - 2100 takes no more
+ * memory than a short range
+ * Chunks are counted from 1900 whatever the range, so the sweep finds the same times (to the second) for an event
+ * however the feed is split up, and a feed continued with append is the same as one written in one go
+ * Times are written in UTC so the feed needs no time zone definitions, the location's zone only decides which
+ * instants the local start and end dates stand for
+ * append adds only the events after the last one already in a feed, for feeds regenerated as time goes on
+ */
+
+public class IcsExporter {
+	static final int CHUNK_DAYS = 366;
+	static final double FIRST_DAY = 2415020.5; // 1900-01-01, chunks are counted from here
+	static final int TAIL_BYTES = 8192; // read back by append, plenty for the last event and the end of the calendar
+	static final String PRODUCT = "-//470JavaCalendarApp//Astronomical Calendar//EN";
+	static final String FOOTER = "END:VCALENDAR\r\n";
+	static final String LAST_START = "\r\nDTSTART:";
+
+	private static final DateTimeFormatter UTC = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'", Locale.ROOT).withZone(ZoneOffset.UTC);
+	private static final double SECOND = 1.0 / OffsetTable.SECONDS_PER_DAY;
+
+	private final GeoLocation location;
+	private final boolean sunriseSunset;
+	private final EphemerisEngine engine;
+	private final int threads;
+	private final String stamp; // DTSTAMP of every event written, when the feed was made
+	private final AtomicBoolean cancelled = new AtomicBoolean();
+
+	public IcsExporter(GeoLocation location, boolean sunriseSunset) {
+		this(location, sunriseSunset, EphemerisEngine.shared(), Runtime.getRuntime().availableProcessors());
+	}
+
+	public IcsExporter(GeoLocation location, boolean sunriseSunset, EphemerisEngine engine, int threads) {
+		this.location = location;
+		this.sunriseSunset = sunriseSunset;
+		this.engine = engine;
+		this.threads = threads;
+		stamp = UTC.format(Instant.now());
+	}
+
+	// Stops a running export or append, which then throws a CancellationException
+	public void cancel() {
+		cancelled.set(true);
+	}
+
+	// Writes a whole calendar with every event from the start of the local day start to the end of the local day end
+	// Returns the number of events written
+	public int export(LocalDate start, LocalDate end, Writer out, AlmanacExporter.ProgressListener listener) throws IOException, InterruptedException {
+		if (end.isBefore(start))
+			throw new IllegalArgumentException("End date " + end + " is before start date " + start);
+		writeHeader(out);
+		int events = writeEvents(startOfDay(start), startOfDay(end.plusDays(1)), out, listener);
+		out.write(FOOTER);
+		out.flush();
+		return events;
+	}
+
+	// Adds the events after the last one in a feed written for the same location and options, up to the end of the
+	// local day end, in place just before the end of the calendar
+	// Returns the number of events added, 0 if the feed already goes past end
+	public int append(File file, LocalDate end, AlmanacExporter.ProgressListener listener) throws IOException, InterruptedException {
+		try (RandomAccessFile feed = new RandomAccessFile(file, "rw")) {
+			String head = read(feed, 0, (int) Math.min(feed.length(), TAIL_BYTES));
+			if (!head.startsWith("BEGIN:VCALENDAR\r\n") || !head.contains(sourceLine() + "\r\n"))
+				throw new IOException(file + " is not a feed for " + location + (sunriseSunset ? " with" : " without") + " sunrise and sunset");
+			long tailStart = Math.max(0, feed.length() - TAIL_BYTES);
+			String tail = read(feed, tailStart, (int) (feed.length() - tailStart));
+			int footer = tail.lastIndexOf(FOOTER);
+			int lastStart = tail.lastIndexOf(LAST_START);
+			if (footer < 0 || lastStart < 0)
+				throw new IOException(file + " has no events to continue from");
+			double last;
+			try {
+				int from = lastStart + LAST_START.length();
+				last = julianDay(Instant.from(UTC.parse(tail.substring(from, tail.indexOf('\r', from)))));
+			} catch (DateTimeParseException | StringIndexOutOfBoundsException e) {
+				throw new IOException(file + " has a bad DTSTART: " + e.getMessage());
+			}
+
+			// Times are written to the second, so anything within a second of the last one is that event again
+			feed.setLength(tailStart + footer);
+			feed.seek(feed.length());
+			Writer out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(feed.getChannel()), StandardCharsets.US_ASCII));
+			int events = writeEvents(last + SECOND, startOfDay(end.plusDays(1)), out, listener);
+			out.write(FOOTER);
+			out.flush();
+			return events;
+		}
+	}
+
+	// *** Events
+
+	// One event of a chunk, held only until the chunk is written
+	private static final class Event {
+		final double julianDay; // UT
+		final String kind; // for the UID, eg. full-moon
+		final String summary;
+		final String description; // null for none
+
+		Event(double julianDay, String kind, String summary, String description) {
+			this.julianDay = julianDay;
+			this.kind = kind;
+			this.summary = summary;
+			this.description = description;
+		}
+	}
+
+	// Writes the events from from up to (not including) to in time order, a chunk at a time, the chunks worked out
+	// in parallel but written strictly in order as they finish
+	private int writeEvents(double from, double to, Writer out, AlmanacExporter.ProgressListener listener)
+			throws IOException, InterruptedException {
+		long totalDays = (long) Math.ceil(to - from);
+		int written = 0;
+		ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "ics-export");
+			thread.setDaemon(true);
+			return thread;
+		});
+		Deque<Future<List<Event>>> inFlight = new ArrayDeque<>();
+		double first = FIRST_DAY + Math.floor((from - FIRST_DAY) / CHUNK_DAYS) * CHUNK_DAYS, next = first;
+		try {
+			for (int done = 1; next < to || !inFlight.isEmpty(); done++) {
+				// Keep a couple of chunks per thread worked out ahead, no more
+				while (next < to && inFlight.size() < threads * 2) {
+					double chunk = next;
+					inFlight.add(pool.submit(() -> events(chunk, Math.max(chunk, from), Math.min(chunk + CHUNK_DAYS, to))));
+					next += CHUNK_DAYS;
+				}
+
+				List<Event> events = inFlight.poll().get();
+				if (cancelled.get())
+					throw new CancellationException("Export cancelled");
+				for (Event event : events)
+					writeEvent(out, event);
+				out.flush();
+				written += events.size();
+				if (listener != null)
+					listener.progress(Math.min((long) Math.ceil(first + done * CHUNK_DAYS - from), totalDays), totalDays);
+			}
+		} catch (ExecutionException e) {
+			throw new IOException("Calculation failed: " + e.getCause(), e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		return written;
+	}
+
+	// The events from from up to (not including) to, which are inside the chunk starting at chunk
+	private List<Event> events(double chunk, double from, double to) {
+		List<Event> events = new ArrayList<>();
+		LunationTable lunations = LunationTable.shared();
+		for (LunationTable.Lunation l = lunations.next(from); l != null && l.getJulianDay() < to; l = lunations.next(l.getJulianDay() + SECOND))
+			events.add(new Event(l.getJulianDay(), slug(l.getQuarter().name()), l.getQuarter().toString(), null));
+
+		for (EclipseCatalog catalog : new EclipseCatalog[] { EclipseCatalog.solar(), EclipseCatalog.lunar() }) {
+			String name = catalog.getKind() == EclipseCatalog.Kind.SOLAR ? "Solar Eclipse" : "Lunar Eclipse";
+			for (EclipseCatalog.LocalEclipse e = catalog.nextLocal(from, location); e != null && e.getMaximum() < to;
+					e = catalog.nextLocal(e.getMaximum() + 1, location)) {
+				events.add(new Event(e.getMaximum(), slug(name), eclipseType(e.getGlobal().getType()) + name,
+						String.format(Locale.ROOT, "Maximum with magnitude %.2f", e.getMagnitude())));
+			}
+		}
+
+		if (sunriseSunset) {
+			engine.compute(sw -> {
+				// The whole chunk is swept and the sweep can find crossings just outside it, only the ones in range are kept
+				RiseSetSweep.Events sun = DaySummary.sweep(new RiseSetSweep(sw, location), SwissEphDate.SUN, chunk, chunk + CHUNK_DAYS);
+				for (double rise : sun.getRises())
+					if (rise >= from && rise < to)
+						events.add(new Event(rise, "sunrise", "Sunrise", null));
+				for (double set : sun.getSets())
+					if (set >= from && set < to)
+						events.add(new Event(set, "sunset", "Sunset", null));
+				return null;
+			});
+		}
+		events.sort((a, b) -> Double.compare(a.julianDay, b.julianDay));
+		return events;
+	}
+
+	// eg. "Total ", empty if the type has none of the usual flags
+	private static String eclipseType(int type) {
+		if ((type & SweConst.SE_ECL_ANNULAR_TOTAL) != 0)
+			return "Hybrid ";
+		if ((type & SweConst.SE_ECL_TOTAL) != 0)
+			return "Total ";
+		if ((type & SweConst.SE_ECL_ANNULAR) != 0)
+			return "Annular ";
+		if ((type & SweConst.SE_ECL_PARTIAL) != 0)
+			return "Partial ";
+		if ((type & SweConst.SE_ECL_PENUMBRAL) != 0)
+			return "Penumbral ";
+		return "";
+	}
+
+	// *** Format, lines end in CRLF as iCalendar requires and nothing written needs escaping or folding
+
+	private void writeHeader(Writer out) throws IOException {
+		out.write("BEGIN:VCALENDAR\r\n");
+		out.write("VERSION:2.0\r\n");
+		out.write("PRODID:" + PRODUCT + "\r\n");
+		out.write("CALSCALE:GREGORIAN\r\n");
+		out.write("METHOD:PUBLISH\r\n");
+		out.write("X-WR-CALNAME:Astronomical Calendar\r\n");
+		out.write(sourceLine() + "\r\n");
+	}
+
+	// Where and with what the feed was made, append only continues a feed with the same one
+	private String sourceLine() {
+		return "X-ALMANAC-SOURCE:" + location.getLongitude() + " " + location.getLatitude() + " " + location.getElevation() + " "
+				+ location.getZone().getId() + (sunriseSunset ? " sun" : "");
+	}
+
+	private void writeEvent(Writer out, Event event) throws IOException {
+		String start = UTC.format(instant(event.julianDay));
+		out.write("BEGIN:VEVENT\r\n");
+		out.write(String.format(Locale.ROOT, "UID:%s-%s-%.4f_%.4f@astronomical-calendar\r\n", event.kind, start, location.getLongitude(), location.getLatitude()));
+		out.write("DTSTAMP:" + stamp + "\r\n");
+		out.write("DTSTART:" + start + "\r\n");
+		out.write("SUMMARY:" + event.summary + "\r\n");
+		if (event.description != null)
+			out.write("DESCRIPTION:" + event.description + "\r\n");
+		out.write("TRANSP:TRANSPARENT\r\n");
+		out.write("END:VEVENT\r\n");
+	}
+
+	// eg. FULL_MOON or "Solar Eclipse" to full-moon or solar-eclipse
+	private static String slug(String name) {
+		return name.toLowerCase(Locale.ROOT).replace('_', '-').replace(' ', '-');
+	}
+
+	private double startOfDay(LocalDate date) {
+		double julianDay = EphemerisEngine.julianDay(date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+		return OffsetTable.covering(location.getZone(), julianDay - 1, julianDay + 1).startOfDay(date);
+	}
+
+	private static Instant instant(double julianDay) {
+		return Instant.ofEpochSecond(Math.round((julianDay - OffsetTable.UNIX_EPOCH) * OffsetTable.SECONDS_PER_DAY));
+	}
+
+	private static double julianDay(Instant instant) {
+		return OffsetTable.UNIX_EPOCH + instant.getEpochSecond() / (double) OffsetTable.SECONDS_PER_DAY;
+	}
+
+	private static String read(RandomAccessFile file, long position, int length) throws IOException {
+		byte[] bytes = new byte[length];
+		file.seek(position);
+		file.readFully(bytes);
+		return new String(bytes, StandardCharsets.US_ASCII);
+	}
+
+	// *** Headless batch mode
+	// Usage: IcsExporter <start yyyy-mm-dd> <end yyyy-mm-dd> <output.ics> <longitude,latitude,elevation[,time zone]> [sun] [append]
+	// With append an existing feed is continued from its last event instead of written again from start
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.err.println("Usage: IcsExporter <start yyyy-mm-dd> <end yyyy-mm-dd> <output.ics> <longitude,latitude,elevation[,time zone]> [sun] [append]");
+			System.exit(1);
+		}
+		LocalDate start = LocalDate.parse(args[0]);
+		LocalDate end = LocalDate.parse(args[1]);
+		File file = new File(args[2]);
+		String[] parts = args[3].split(",");
+		double longitude = Double.parseDouble(parts[0]);
+		GeoLocation location = new GeoLocation(longitude, Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+				parts.length > 3 ? ZoneId.of(parts[3]) : GeoLocation.defaultZone(longitude));
+		boolean sun = false, append = false;
+		for (int i = 4; i < args.length; i++) {
+			sun |= args[i].equals("sun");
+			append |= args[i].equals("append");
+		}
+
+		long begin = System.nanoTime();
+		IcsExporter exporter = new IcsExporter(location, sun);
+		int events;
+		if (append && file.isFile()) {
+			events = exporter.append(file, end, null);
+		} else {
+			try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.US_ASCII))) {
+				events = exporter.export(start, end, out, null);
+			}
+		}
+		System.err.println("Wrote " + events + " events to " + file + " in " + (System.nanoTime() - begin) / 1000000 + "ms");
+	}
+}
@@ -0,0 +1,257 @@
+package pkg;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import swisseph.*;
+
+/*
+ * Exact times of every new moon, first quarter, full moon and last quarter
+ * Each one is found by root finding on the moon's ecliptic longitude minus the sun's (0, 90, 180 and 270 degrees),
+ * starting from the mean lunation and refined with Newton's method using the speeds swe_calc_ut returns
+ * Instants are worked out a decade at a time the first time a date in that decade is asked about, after that
+ * finding the phase of a day is a binary search
+ * A day is given by the julian dates (UT) it starts and ends at, so the calendar's local days (23 or 25 hours long
+ * when the clocks change) are labelled by what happens during them, the methods with only a start use a 24 hour day
+ */
+
+public final class LunationTable {
+	public enum Quarter {
+		NEW_MOON("New Moon", "New"),
+		FIRST_QUARTER("First Quarter", "1st Qtr"),
+		FULL_MOON("Full Moon", "Full"),
+		LAST_QUARTER("Last Quarter", "Last Qtr");
+
+		private final String displayName;
+		private final String shortName;
+
+		Quarter(String displayName, String shortName) {
+			this.displayName = displayName;
+			this.shortName = shortName;
+		}
+
+		// Short name that fits in a calendar square eg. "1st Qtr"
+		public String getShortName() { return shortName; }
+
+		@Override
+		public String toString() { return displayName; }
+	}
+
+	// One new moon, quarter or full moon
+	public static final class Lunation {
+		private final Quarter quarter;
+		private final double julianDay; // UT
+
+		Lunation(Quarter quarter, double julianDay) {
+			this.quarter = quarter;
+			this.julianDay = julianDay;
+		}
+
+		public Quarter getQuarter() { return quarter; }
+		public double getJulianDay() { return julianDay; }
+
+		// UT time eg. 8:57
+		public String formatTime() { return OffsetTable.UTC.format(julianDay); }
+
+		@Override
+		public String toString() {
+			return quarter + " " + EphemerisEngine.toLocalDate(julianDay) + " " + formatTime() + " UT";
+		}
+	}
+
+	static final double SYNODIC_MONTH = 29.530588861; // mean days from new moon to new moon
+	static final double REFERENCE_NEW_MOON = 2451550.09766; // 2000-01-06 18:14 UT
+	static final double FIRST_DAY = 2415020.5; // 1900-01-01, windows are counted from here
+	static final int WINDOW_DAYS = 3653; // about a decade
+
+	private static final LunationTable SHARED = new LunationTable(EphemerisEngine.shared());
+
+	private final EphemerisEngine engine;
+	private final Map<Integer, Window> windows = new ConcurrentHashMap<>();
+
+	LunationTable(EphemerisEngine engine) {
+		this.engine = engine;
+	}
+
+	public static LunationTable shared() { return SHARED; }
+
+	// *** Lookups, each one borrows a SwissEph only if its decade hasn't been worked out yet
+
+	// Phase shown for the day starting at julianDay, "New Moon" or "Full Moon" on the day either happens,
+	// otherwise decided by the last new moon or quarter before the day starts
+	public MoonPhase phaseOn(double julianDay) {
+		return phaseOn(null, julianDay);
+	}
+
+	// New moon, quarter or full moon happening during the day starting at julianDay, null if there is none
+	public Lunation lunationOn(double julianDay) {
+		return lunationOn(null, julianDay);
+	}
+
+	// Same as above for the day from start to end
+	public Lunation lunationOn(double start, double end) {
+		return lunationOn(null, start, end);
+	}
+
+	// Phase of the day from start to end
+	public MoonPhase phaseOn(double start, double end) {
+		return phaseOn(null, start, end);
+	}
+
+	// Whether every lookup from start to end can be answered without searching, the GUI checks this so
+	// it never waits on a decade being worked out, see calculate
+	public boolean isCalculated(double start, double end) {
+		for (int w = windowIndex(start) - 1; w <= windowIndex(end) + 1; w++)
+			if (!windows.containsKey(w))
+				return false;
+		return true;
+	}
+
+	// Works out the decades from start to end and the ones either side, ahead of the lookups
+	public void calculate(double start, double end) {
+		for (int w = windowIndex(start) - 1; w <= windowIndex(end) + 1; w++)
+			window(null, w);
+	}
+
+	// First instant at or after julianDay
+	public Lunation next(double julianDay) {
+		return next(null, julianDay);
+	}
+
+	// Last instant before julianDay
+	public Lunation previous(double julianDay) {
+		return previous(null, julianDay);
+	}
+
+	// Same as above with a SwissEph the caller has already borrowed (or null), used from inside calculations
+	// so they never borrow a second instance
+	MoonPhase phaseOn(SwissEph sw, double julianDay) {
+		return phaseOn(sw, julianDay, julianDay + 1);
+	}
+
+	// Phase of the day from start to end
+	MoonPhase phaseOn(SwissEph sw, double start, double end) {
+		Lunation during = lunationOn(sw, start, end);
+		if (during != null && during.quarter == Quarter.NEW_MOON)
+			return MoonPhase.NEW_MOON;
+		if (during != null && during.quarter == Quarter.FULL_MOON)
+			return MoonPhase.FULL_MOON;
+
+		switch (previous(sw, start).quarter) {
+		case NEW_MOON: return MoonPhase.WAXING_CRESCENT;
+		case FIRST_QUARTER: return MoonPhase.WAXING_GIBBOUS;
+		case FULL_MOON: return MoonPhase.WANING_GIBBOUS;
+		default: return MoonPhase.WANING_CRESCENT;
+		}
+	}
+
+	Lunation lunationOn(SwissEph sw, double julianDay) {
+		return lunationOn(sw, julianDay, julianDay + 1);
+	}
+
+	Lunation lunationOn(SwissEph sw, double start, double end) {
+		Lunation next = next(sw, start);
+		return next.julianDay < end ? next : null;
+	}
+
+	Lunation next(SwissEph sw, double julianDay) {
+		int w = windowIndex(julianDay);
+		Window window = window(sw, w);
+		int i = window.firstAtOrAfter(julianDay);
+		return i < window.lunations.length ? window.lunations[i] : window(sw, w + 1).lunations[0];
+	}
+
+	Lunation previous(SwissEph sw, double julianDay) {
+		int w = windowIndex(julianDay);
+		Window window = window(sw, w);
+		int i = window.firstAtOrAfter(julianDay) - 1;
+		if (i >= 0)
+			return window.lunations[i];
+		Window before = window(sw, w - 1);
+		return before.lunations[before.lunations.length - 1];
+	}
+
+	// *** Windows
+
+	static int windowIndex(double julianDay) {
+		return (int) Math.floor((julianDay - FIRST_DAY) / WINDOW_DAYS);
+	}
+
+	private Window window(SwissEph sw, int w) {
+		Window window = windows.get(w);
+		if (window != null)
+			return window;
+		if (sw == null)
+			return engine.compute(borrowed -> window(borrowed, w));
+		// Not locked, threads after the same decade at the same time each search it and the first one in is kept,
+		// a duplicate search is cheaper than waiting on another thread's while holding a borrowed SwissEph
+		long start = CalculationMetrics.shared().begin();
+		window = search(sw, w);
+		CalculationMetrics.shared().end(CalculationMetrics.Operation.LUNATION_SEARCH, start);
+		Window first = windows.putIfAbsent(w, window);
+		return first != null ? first : window;
+	}
+
+	// Every instant in the window, each mean quarter near it refined to the exact time
+	private static Window search(SwissEph sw, int w) {
+		double start = FIRST_DAY + (double) w * WINDOW_DAYS;
+		double end = start + WINDOW_DAYS;
+		double quarterMonth = SYNODIC_MONTH / 4;
+		double[] sun = new double[6], moon = new double[6];
+		StringBuffer error = new StringBuffer();
+		List<Lunation> found = new ArrayList<>();
+
+		// The true instant is never more than about a day from the mean one, so start a little early and finish a little late
+		for (long q = (long) Math.floor((start - 2 - REFERENCE_NEW_MOON) / quarterMonth);; q++) {
+			double mean = REFERENCE_NEW_MOON + q * quarterMonth;
+			if (mean > end + 2)
+				break;
+			Quarter quarter = Quarter.values()[(int) Math.floorMod(q, 4L)];
+			double instant = refine(sw, mean, quarter.ordinal() * 90, sun, moon, error);
+			if (instant >= start && instant < end)
+				found.add(new Lunation(quarter, instant));
+		}
+		return new Window(found.toArray(new Lunation[0]));
+	}
+
+	// Newton's method on the elongation, converges to well under a second in three or four steps
+	private static double refine(SwissEph sw, double julianDay, double targetElongation, double[] sun, double[] moon, StringBuffer error) {
+		int flags = CalculationProfile.active().getFlags() | SweConst.SEFLG_SPEED;
+		for (int i = 0; i < 10; i++) {
+			sw.swe_calc_ut(julianDay, SwissEphDate.SUN, flags, sun, error);
+			sw.swe_calc_ut(julianDay, SwissEphDate.MOON, flags, moon, error);
+			double difference = moon[0] - sun[0] - targetElongation;
+			difference -= 360 * Math.floor((difference + 180) / 360); // into -180 to 180
+			double step = difference / (moon[3] - sun[3]);
+			julianDay -= step;
+			if (Math.abs(step) < 1e-6)
+				break;
+		}
+		return julianDay;
+	}
+
+	private static final class Window {
+		final Lunation[] lunations;
+		final double[] instants; // same order as lunations, for the binary search
+
+		Window(Lunation[] lunations) {
+			this.lunations = lunations;
+			instants = new double[lunations.length];
+			for (int i = 0; i < lunations.length; i++)
+				instants[i] = lunations[i].julianDay;
+		}
+
+		int firstAtOrAfter(double julianDay) {
+			int low = 0, high = instants.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (instants[mid] < julianDay)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			return low;
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package pkg;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javafx.application.Platform;
+
+/*
+ * Runs month calculations on a background thread so the JavaFX thread never waits on the ephemeris
+ * Days are handed back to the GUI as they are calculated, batched so that a burst of finished days
+ * becomes one Platform.runLater call rather than one per day
+ * Once the month is finished the planets for it are worked out on the same thread and handed over last
+ * Starting a new load cancels the one in progress and anything it had queued is dropped
+ */
+
+public class MonthLoader {
+	// Called on the GUI thread
+	public interface Callback {
+		void daysReady(RangeResult result, List<Integer> days);
+		void finished(RangeResult result);
+
+		// The month's PlanetOverview, after finished
+		default void planetsReady(PlanetOverview planets) {
+		}
+	}
+
+	private final RangeCalculator calculator;
+	private final Executor uiExecutor;
+	private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "month-loader");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	// Incremented on every load, results from an older generation are stale and ignored
+	private final AtomicInteger generation = new AtomicInteger();
+	private Future<?> current;
+
+	public MonthLoader(RangeCalculator calculator) {
+		this(calculator, Platform::runLater);
+	}
+
+	public MonthLoader(RangeCalculator calculator, Executor uiExecutor) {
+		this.calculator = calculator;
+		this.uiExecutor = uiExecutor;
+	}
+
+	// Starts calculating the range, cancelling whatever was loading before
+	public synchronized void load(LocalDate start, LocalDate end, GeoLocation location, Callback callback) {
+		cancel();
+		int loadGeneration = generation.incrementAndGet();
+		Batch batch = new Batch(loadGeneration, callback);
+
+		current = worker.submit(() -> {
+			try {
+				RangeResult result = calculator.calculate(start, end, location, batch::add);
+				batch.flush(result);
+				uiExecutor.execute(() -> {
+					if (isCurrent(loadGeneration))
+						callback.finished(result);
+				});
+				if (!isCurrent(loadGeneration))
+					return;
+				PlanetOverview planets = PlanetOverview.calculate(result);
+				uiExecutor.execute(() -> {
+					if (isCurrent(loadGeneration))
+						callback.planetsReady(planets);
+				});
+			} catch (RuntimeException e) {
+				// Cancelled loads end with an exception from the calculation, only report real failures
+				if (isCurrent(loadGeneration))
+					System.out.println("Month calculation failed: " + e.getMessage());
+			}
+		});
+	}
+
+	// Stops the current load, any days it already queued for the GUI are dropped
+	public synchronized void cancel() {
+		generation.incrementAndGet();
+		if (current != null) {
+			current.cancel(true);
+			current = null;
+		}
+	}
+
+	public void shutdown() {
+		cancel();
+		worker.shutdownNow();
+	}
+
+	private boolean isCurrent(int loadGeneration) {
+		return generation.get() == loadGeneration;
+	}
+
+	// Collects finished days and hands them to the GUI thread in as few runLater calls as possible
+	private class Batch {
+		private final int loadGeneration;
+		private final Callback callback;
+		private final ConcurrentLinkedQueue<Integer> pending = new ConcurrentLinkedQueue<>();
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		private volatile RangeResult result;
+
+		Batch(int loadGeneration, Callback callback) {
+			this.loadGeneration = loadGeneration;
+			this.callback = callback;
+		}
+
+		void add(RangeResult result, int day) {
+			this.result = result;
+			pending.add(day);
+			// Only schedule a drain if one isn't already waiting, it will pick this day up too
+			if (scheduled.compareAndSet(false, true))
+				uiExecutor.execute(this::drain);
+		}
+
+		void flush(RangeResult result) {
+			this.result = result;
+			if (!pending.isEmpty() && scheduled.compareAndSet(false, true))
+				uiExecutor.execute(this::drain);
+		}
+
+		private void drain() {
+			scheduled.set(false);
+			List<Integer> days = new ArrayList<>();
+			for (Integer day = pending.poll(); day != null; day = pending.poll())
+				days.add(day);
+			if (!days.isEmpty() && isCurrent(loadGeneration))
+				callback.daysReady(result, days);
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package pkg;
+
+/*
+ * The moon phases shown by the calendar, each one has a matching image in the res folder
+ * Which phase a day has is worked out from the exact new moon, quarter and full moon times, see LunationTable
+ */
+
+public enum MoonPhase {
+	NEW_MOON("New Moon"),
+	WAXING_CRESCENT("Waxing Crescent"),
+	WAXING_GIBBOUS("Waxing Gibbous"),
+	FULL_MOON("Full Moon"),
+	WANING_GIBBOUS("Waning Gibbous"),
+	WANING_CRESCENT("Waning Crescent");
+
+	private final String displayName;
+
+	MoonPhase(String displayName) {
+		this.displayName = displayName;
+	}
+
+	public boolean isWaxing() {
+		return this == WAXING_CRESCENT || this == WAXING_GIBBOUS;
+	}
+
+	// Name used in the GUI and exports, eg. "Waning Crescent"
+	@Override
+	public String toString() {
+		return displayName;
+	}
+}
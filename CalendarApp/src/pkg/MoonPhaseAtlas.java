@@ -0,0 +1,77 @@
+package pkg;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import javafx.scene.image.Image;
+
+/*
+ * Holds the six moon phase images, decoded once and shared by every grid cell and popup
+ * Images are read from the classpath (the res folder is a source folder, or packed into the jar)
+ * and only fall back to the ./res folder on disk when running from an unpacked project
+ * Each phase is also kept pre-scaled to the sizes the calendar draws it at so no cell has to rescale
+ */
+
+public final class MoonPhaseAtlas {
+	public static final double GRID_SIZE = 10;
+	public static final double POPUP_SIZE = 50;
+
+	// Each size is decoded the first time one of its images is asked for, so startup only pays for the grid size
+	private static final Map<MoonPhase, Image> FULL = new EnumMap<>(MoonPhase.class);
+	private static final Map<MoonPhase, Image> GRID = new EnumMap<>(MoonPhase.class);
+	private static final Map<MoonPhase, Image> POPUP = new EnumMap<>(MoonPhase.class);
+
+	private MoonPhaseAtlas() {
+	}
+
+	// Returns the full size image for a phase
+	public static Image get(MoonPhase phase) {
+		return get(FULL, phase, 0);
+	}
+
+	// Returns the image for a phase scaled to GRID_SIZE or POPUP_SIZE, other sizes get the full image
+	public static Image get(MoonPhase phase, double size) {
+		if (size == GRID_SIZE)
+			return get(GRID, phase, GRID_SIZE);
+		if (size == POPUP_SIZE)
+			return get(POPUP, phase, POPUP_SIZE);
+		return get(FULL, phase, 0);
+	}
+
+	private static synchronized Image get(Map<MoonPhase, Image> images, MoonPhase phase, double size) {
+		if (images.isEmpty())
+			for (MoonPhase p : MoonPhase.values())
+				images.put(p, load(p, size));
+		return images.get(phase);
+	}
+
+	// Decodes one image, size 0 keeps the original size
+	private static Image load(MoonPhase phase, double size) {
+		String fileName = phase + ".png"; // eg. "Waning Crescent.png"
+		try (InputStream in = open(fileName)) {
+			if (in == null) {
+				System.out.println("File not found: " + fileName);
+				return null;
+			}
+			return size > 0 ? new Image(in, size, size, true, true) : new Image(in);
+		} catch (IOException e) {
+			System.out.println("Could not read " + fileName + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	private static InputStream open(String fileName) throws IOException {
+		InputStream in = MoonPhaseAtlas.class.getResourceAsStream("/res/" + fileName);
+		if (in == null)
+			in = MoonPhaseAtlas.class.getResourceAsStream("/" + fileName);
+		if (in == null) {
+			File file = new File("res", fileName);
+			if (file.isFile())
+				in = new FileInputStream(file);
+		}
+		return in;
+	}
+}
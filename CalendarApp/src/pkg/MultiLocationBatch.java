@@ -0,0 +1,221 @@
+package pkg;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import swisseph.*;
+
+/*
+ * Sunrise, sunset, moonrise and moonset for many locations over a date range in one call
+ * Results go into preallocated primitive columns indexed [site * days + day] instead of one object per site per day,
+ * and the work is split over the cores with fork / join in blocks of one site by up to a month of days,
+ * each block borrowing a single SwissEph from the engine and sweeping the sun and moon over its days
+ * Blocks wait whenever the engine has no instance free, so by default they run in a pool of their own with one
+ * worker per engine instance rather than in the common pool, where they would hold up parallel streams and
+ * CompletableFutures elsewhere in the app
+ * Days are local days in each site's time zone, converted with one OffsetTable per site
+ * Meant for bulk jobs, so nothing here goes through the DayCache or AlmanacStore
+ */
+
+public class MultiLocationBatch {
+	static final int BLOCK_DAYS = 32; // days per fork / join leaf
+
+	private final EphemerisEngine engine;
+	private final ForkJoinPool pool;
+
+	public MultiLocationBatch() {
+		this(EphemerisEngine.shared(), SharedPool.POOL);
+	}
+
+	// pool should have no more workers than the engine has instances, or the extra ones only wait
+	public MultiLocationBatch(EphemerisEngine engine, ForkJoinPool pool) {
+		this.engine = engine;
+		this.pool = pool;
+	}
+
+	// Created the first time a batch uses the shared engine, the workers are daemons like every pool in the app
+	private static final class SharedPool {
+		static final ForkJoinPool POOL = new ForkJoinPool(EphemerisEngine.shared().getMaxInstances(), pool -> {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("location-batch-" + thread.getPoolIndex());
+			return thread;
+		}, null, false);
+	}
+
+	public Result calculate(List<GeoLocation> locations, LocalDate start, LocalDate end) {
+		double[] longitudes = new double[locations.size()], latitudes = new double[locations.size()], elevations = new double[locations.size()];
+		ZoneId[] zones = new ZoneId[locations.size()];
+		for (int i = 0; i < locations.size(); i++) {
+			longitudes[i] = locations.get(i).getLongitude();
+			latitudes[i] = locations.get(i).getLatitude();
+			elevations[i] = locations.get(i).getElevation();
+			zones[i] = locations.get(i).getZone();
+		}
+		return calculate(longitudes, latitudes, elevations, zones, start, end);
+	}
+
+	// Calculates every day from start to end (both inclusive) for each site, site i being (longitudes[i], latitudes[i], elevations[i])
+	// in the time zone from its longitude
+	public Result calculate(double[] longitudes, double[] latitudes, double[] elevations, LocalDate start, LocalDate end) {
+		ZoneId[] zones = new ZoneId[longitudes.length];
+		for (int i = 0; i < longitudes.length; i++)
+			zones[i] = GeoLocation.defaultZone(longitudes[i]);
+		return calculate(longitudes, latitudes, elevations, zones, start, end);
+	}
+
+	// Same as above with each site's time zone
+	public Result calculate(double[] longitudes, double[] latitudes, double[] elevations, ZoneId[] zones, LocalDate start, LocalDate end) {
+		if (longitudes.length != latitudes.length || longitudes.length != elevations.length || longitudes.length != zones.length)
+			throw new IllegalArgumentException("Longitude, latitude, elevation and zone arrays must be the same length");
+		int days = (int) ChronoUnit.DAYS.between(start, end) + 1;
+		if (days < 1)
+			throw new IllegalArgumentException("End date " + end + " is before start date " + start);
+
+		Result result = new Result(start, longitudes, latitudes, elevations, zones, days);
+		int blocksPerSite = (days + BLOCK_DAYS - 1) / BLOCK_DAYS;
+		pool.invoke(new Blocks(result, blocksPerSite, 0, longitudes.length * blocksPerSite));
+		return result;
+	}
+
+	// Splits its blocks in half until there is one left, which it calculates
+	private class Blocks extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Result result;
+		private final int blocksPerSite;
+		private final int first;
+		private final int last; // exclusive
+
+		Blocks(Result result, int blocksPerSite, int first, int last) {
+			this.result = result;
+			this.blocksPerSite = blocksPerSite;
+			this.first = first;
+			this.last = last;
+		}
+
+		@Override
+		protected void compute() {
+			if (last - first > 1) {
+				int middle = (first + last) >>> 1;
+				invokeAll(new Blocks(result, blocksPerSite, first, middle), new Blocks(result, blocksPerSite, middle, last));
+				return;
+			}
+			if (first >= last)
+				return;
+
+			int site = first / blocksPerSite;
+			int fromDay = (first % blocksPerSite) * BLOCK_DAYS;
+			int toDay = Math.min(fromDay + BLOCK_DAYS, result.days);
+			engine.compute(sw -> {
+				calculateBlock(sw, result, site, fromDay, toDay);
+				return null;
+			});
+		}
+	}
+
+	private static void calculateBlock(SwissEph sw, Result result, int site, int fromDay, int toDay) {
+		OffsetTable offsets = result.offsets[site];
+		double[] dayStarts = new double[toDay - fromDay + 1];
+		for (int day = fromDay; day <= toDay; day++)
+			dayStarts[day - fromDay] = offsets.startOfDay(result.start.plusDays(day));
+
+		RiseSetSweep sweep = new RiseSetSweep(sw, result.getLocation(site));
+		RiseSetSweep.Events sun = DaySummary.sweep(sweep, SwissEphDate.SUN, dayStarts[0], dayStarts[dayStarts.length - 1]);
+		RiseSetSweep.Events moon = DaySummary.sweep(sweep, SwissEphDate.MOON, dayStarts[0], dayStarts[dayStarts.length - 1]);
+
+		for (int day = fromDay; day < toDay; day++) {
+			double start = dayStarts[day - fromDay], end = dayStarts[day - fromDay + 1];
+			int i = site * result.days + day;
+			result.sunrise[i] = sun.rise(start, end);
+			result.sunset[i] = sun.set(start, end);
+			result.moonrise[i] = moon.rise(start, end);
+			result.moonset[i] = moon.set(start, end);
+			result.sunriseMinute[i] = offsets.minuteOfDay(result.sunrise[i]);
+			result.sunsetMinute[i] = offsets.minuteOfDay(result.sunset[i]);
+			result.moonriseMinute[i] = offsets.minuteOfDay(result.moonrise[i]);
+			result.moonsetMinute[i] = offsets.minuteOfDay(result.moonset[i]);
+		}
+	}
+
+	// Columns of a batch, every one indexed [site * getDays() + day]
+	// The arrays are handed out as is, not copied, so callers can read them without any allocation
+	public static final class Result {
+		final LocalDate start;
+		final int days;
+		final double firstJulianDay;
+		final double[] longitudes;
+		final double[] latitudes;
+		final double[] elevations;
+		final ZoneId[] zones;
+		final OffsetTable[] offsets; // per site, covering the whole range
+
+		// Julian dates (UT), NaN when the event doesn't happen that day
+		final double[] sunrise;
+		final double[] sunset;
+		final double[] moonrise;
+		final double[] moonset;
+
+		// Local minute of the day (0 - 1439), -1 when the event doesn't happen that day
+		final int[] sunriseMinute;
+		final int[] sunsetMinute;
+		final int[] moonriseMinute;
+		final int[] moonsetMinute;
+
+		Result(LocalDate start, double[] longitudes, double[] latitudes, double[] elevations, ZoneId[] zones, int days) {
+			this.start = start;
+			this.days = days;
+			this.firstJulianDay = EphemerisEngine.julianDay(start.getYear(), start.getMonthValue(), start.getDayOfMonth());
+			this.longitudes = longitudes.clone();
+			this.latitudes = latitudes.clone();
+			this.elevations = elevations.clone();
+			this.zones = zones.clone();
+			offsets = new OffsetTable[longitudes.length];
+			for (int site = 0; site < longitudes.length; site++)
+				offsets[site] = OffsetTable.of(zones[site], firstJulianDay - 1, firstJulianDay + days + 1);
+
+			int size = longitudes.length * days;
+			sunrise = new double[size];
+			sunset = new double[size];
+			moonrise = new double[size];
+			moonset = new double[size];
+			sunriseMinute = new int[size];
+			sunsetMinute = new int[size];
+			moonriseMinute = new int[size];
+			moonsetMinute = new int[size];
+		}
+
+		public int getSites() { return longitudes.length; }
+		public int getDays() { return days; }
+		public LocalDate getStart() { return start; }
+		public LocalDate getDate(int day) { return start.plusDays(day); }
+		public GeoLocation getLocation(int site) { return new GeoLocation(longitudes[site], latitudes[site], elevations[site], zones[site]); }
+		public OffsetTable getOffsets(int site) { return offsets[site]; }
+		public int index(int site, int day) { return site * days + day; }
+
+		public double[] getJulianDayColumn(DaySummary.Event e) {
+			switch (e) {
+			case SUNRISE: return sunrise;
+			case SUNSET: return sunset;
+			case MOONRISE: return moonrise;
+			default: return moonset;
+			}
+		}
+
+		public int[] getMinuteColumn(DaySummary.Event e) {
+			switch (e) {
+			case SUNRISE: return sunriseMinute;
+			case SUNSET: return sunsetMinute;
+			case MOONRISE: return moonriseMinute;
+			default: return moonsetMinute;
+			}
+		}
+
+		// Local time of an event for display eg. 18:32, or "None"
+		public String format(DaySummary.Event e, int site, int day) {
+			return offsets[site].format(getJulianDayColumn(e)[index(site, day)]);
+		}
+	}
+}
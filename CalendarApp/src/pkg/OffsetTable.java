@@ -0,0 +1,174 @@
+package pkg;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * The UTC offsets of a time zone over a range of dates, read from its ZoneRules once and kept as a few
+ * parallel arrays of offset changes
+ * Turning an event into local time is then a binary search over the changes in the range (usually none or two
+ * a year) instead of a ZoneRules query per event, which matters when a range has millions of events
+ * Times going in are julian dates (UT) like everywhere else in the app
+ * Tables for 1900 - 2100 are kept per zone and shared, see covering, so code that only needs a day or an event
+ * doesn't read the zone's rules again every time
+ */
+
+public final class OffsetTable {
+	static final double UNIX_EPOCH = 2440587.5; // julian date of 1970-01-01 0h UT
+	static final int SECONDS_PER_DAY = 86400;
+
+	// For times that are shown in UT
+	public static final OffsetTable UTC = new OffsetTable(ZoneOffset.UTC, new long[] { Long.MIN_VALUE }, new int[] { 0 });
+
+	// What the shared tables cover, the years the app supports and a few days either side
+	static final double SHARED_FROM = UNIX_EPOCH + LocalDate.of(1900, 1, 1).toEpochDay() - 3;
+	static final double SHARED_TO = UNIX_EPOCH + LocalDate.of(2101, 1, 1).toEpochDay() + 3;
+
+	// Zones with rules, and fixed offsets in whole quarter hours like the ones ZoneOffset caches, any number of
+	// seconds would be too many to keep
+	private static final Map<ZoneId, OffsetTable> SHARED = new ConcurrentHashMap<>();
+
+	private final ZoneId zone;
+	private final long[] changes; // epoch second each offset starts at, the first is Long.MIN_VALUE
+	private final int[] offsets; // seconds east of greenwich from the matching change on
+	private final long[] localChanges; // changes[i] + offsets[i], local epoch second each offset starts at
+
+	private OffsetTable(ZoneId zone, long[] changes, int[] offsets) {
+		this.zone = zone;
+		this.changes = changes;
+		this.offsets = offsets;
+		localChanges = new long[changes.length];
+		for (int i = 0; i < changes.length; i++)
+			localChanges[i] = i == 0 ? Long.MIN_VALUE : changes[i] + offsets[i];
+	}
+
+	// Table for the zone from to to (julian dates UT), times outside of that get the offset at the nearest end
+	public static OffsetTable of(ZoneId zone, double from, double to) {
+		ZoneRules rules = zone.getRules();
+		Instant start = Instant.ofEpochSecond(epochSecond(from));
+		long end = epochSecond(to);
+
+		long[] changes = new long[8];
+		int[] offsets = new int[8];
+		changes[0] = Long.MIN_VALUE;
+		offsets[0] = rules.getOffset(start).getTotalSeconds();
+		int count = 1;
+		for (ZoneOffsetTransition t = rules.nextTransition(start); t != null && t.getInstant().getEpochSecond() <= end;
+				t = rules.nextTransition(t.getInstant())) {
+			if (count == changes.length) {
+				changes = Arrays.copyOf(changes, count * 2);
+				offsets = Arrays.copyOf(offsets, count * 2);
+			}
+			changes[count] = t.getInstant().getEpochSecond();
+			offsets[count++] = t.getOffsetAfter().getTotalSeconds();
+		}
+		return new OffsetTable(zone, Arrays.copyOf(changes, count), Arrays.copyOf(offsets, count));
+	}
+
+	// Table covering at least from to to, the zone's shared one when the range is in the years the app supports,
+	// and for a fixed offset whatever the range since its one offset holds for every time
+	public static OffsetTable covering(ZoneId zone, double from, double to) {
+		if (zone instanceof ZoneOffset) {
+			if (((ZoneOffset) zone).getTotalSeconds() % 900 != 0)
+				return of(zone, from, to);
+		} else if (from < SHARED_FROM || to > SHARED_TO) {
+			return of(zone, from, to);
+		}
+		return SHARED.computeIfAbsent(zone, z -> of(z, SHARED_FROM, SHARED_TO));
+	}
+
+	public ZoneId getZone() { return zone; }
+
+	// Number of offsets in the table, 1 for a zone without daylight saving
+	public int size() { return changes.length; }
+
+	// *** Julian date (UT) to local time
+
+	// Seconds east of greenwich at a julian date
+	public int offsetSeconds(double julianDay) {
+		return offsets[find(changes, epochSecond(julianDay))];
+	}
+
+	public LocalDateTime toLocalDateTime(double julianDay) {
+		if (Double.isNaN(julianDay))
+			return null;
+		double seconds = (julianDay - UNIX_EPOCH) * SECONDS_PER_DAY;
+		long whole = (long) Math.floor(seconds);
+		int nanos = (int) ((seconds - whole) * 1e9);
+		return LocalDateTime.ofEpochSecond(whole, nanos, ZoneOffset.ofTotalSeconds(offsets[find(changes, whole)]));
+	}
+
+	// Local date an event happens on
+	public LocalDate toLocalDate(double julianDay) {
+		return LocalDate.ofEpochDay(Math.floorDiv(localSecond(julianDay), SECONDS_PER_DAY));
+	}
+
+	// Local minute of the day (0 - 1439), -1 for NaN
+	public int minuteOfDay(double julianDay) {
+		if (Double.isNaN(julianDay))
+			return -1;
+		long minute = Math.floorMod(localSecond(julianDay), SECONDS_PER_DAY) / 60;
+		return (int) minute;
+	}
+
+	// Local time for display eg. 18:32 or 6:07, "None" for NaN
+	public String format(double julianDay) {
+		int minute = minuteOfDay(julianDay);
+		if (minute < 0)
+			return "None";
+		int minutes = minute % 60;
+		return (minute / 60) + ":" + (minutes < 10 ? "0" : "") + minutes;
+	}
+
+	// *** Local day to julian date (UT)
+
+	// First instant of a local day, local midnight unless the clocks skip midnight (then the end of the gap), and
+	// where midnight happens twice the first one
+	public double startOfDay(LocalDate date) {
+		long local = date.toEpochDay() * SECONDS_PER_DAY;
+		int i = find(localChanges, local);
+		long second;
+		if (i + 1 < changes.length && local >= changes[i + 1] + offsets[i])
+			second = changes[i + 1]; // in the gap before the next offset
+		else if (i > 0 && local < changes[i] + offsets[i - 1])
+			second = local - offsets[i - 1]; // also before the change, the earlier of the two
+		else
+			second = local - offsets[i];
+		return UNIX_EPOCH + (double) second / SECONDS_PER_DAY;
+	}
+
+	private long localSecond(double julianDay) {
+		long second = epochSecond(julianDay);
+		return second + offsets[find(changes, second)];
+	}
+
+	private static long epochSecond(double julianDay) {
+		return (long) Math.floor((julianDay - UNIX_EPOCH) * SECONDS_PER_DAY);
+	}
+
+	// Last index whose value is at or before the second, values[0] is always Long.MIN_VALUE
+	private static int find(long[] values, long second) {
+		int low = 1, high = values.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (values[mid] <= second)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low - 1;
+	}
+
+	@Override
+	public String toString() {
+		return zone + " (" + changes.length + " offsets)";
+	}
+}
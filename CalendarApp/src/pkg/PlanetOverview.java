@@ -0,0 +1,143 @@
+package pkg;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import swisseph.*;
+
+/*
+ * Mercury, Venus, Mars, Jupiter and Saturn over a range of local days, when each rises and sets, how high it
+ * is at dusk and how bright it is, for the evening planets in the grid and the day popup
+ * All five bodies are worked out in one pass with a single SwissEph: each body's rises and sets come from one
+ * RiseSetSweep over the whole range, and its dusk altitude and magnitude from one position and one swe_pheno_ut
+ * a day, everything stored in primitive columns indexed [body * days + day] instead of objects per body per day
+ * Dusk is DUSK_AFTER_SUNSET after sunset, a day without a sunset has no dusk and no planets visible at it
+ * A planet counts as visible when it is at least VISIBLE_ALTITUDE up at dusk and no fainter than VISIBLE_MAGNITUDE
+ * Bodies are numbered 0 - 4 in BODIES order
+ */
+
+public final class PlanetOverview {
+	public static final int[] BODIES = { SwissEphDate.MERCURY, SwissEphDate.VENUS, SwissEphDate.MARS, SwissEphDate.JUPITER, SwissEphDate.SATURN };
+	static final String[] NAMES = { "Mercury", "Venus", "Mars", "Jupiter", "Saturn" };
+	static final String[] SHORT_NAMES = { "Me", "Ve", "Ma", "Ju", "Sa" };
+
+	static final double DUSK_AFTER_SUNSET = 45.0 / 1440; // days, when the brighter planets show in the twilight
+	static final double VISIBLE_ALTITUDE = 5; // degrees, apparent
+	static final double VISIBLE_MAGNITUDE = 2.5; // about the faintest a planet low in twilight can be picked out
+
+	private static final int TOPOCENTRIC = SweConst.SEFLG_EQUATORIAL | SweConst.SEFLG_TOPOCTR; // with the profile's ephemeris
+
+	final LocalDate start;
+	final int days;
+	final OffsetTable offsets;
+	final double[] dusk; // per day, julian date (UT), NaN without a sunset
+	final double[] rise; // [body * days + day], julian dates (UT), NaN if there is none that day
+	final double[] set;
+	final double[] duskAltitude; // apparent altitude in degrees, NaN without a dusk
+	final double[] magnitude; // at dusk, or the start of the day without one
+
+	PlanetOverview(LocalDate start, int days, OffsetTable offsets) {
+		this.start = start;
+		this.days = days;
+		this.offsets = offsets;
+		dusk = new double[days];
+		rise = new double[BODIES.length * days];
+		set = new double[BODIES.length * days];
+		duskAltitude = new double[BODIES.length * days];
+		magnitude = new double[BODIES.length * days];
+	}
+
+	// The planets for every day of a month already calculated, dusk comes from its sunsets
+	public static PlanetOverview calculate(RangeResult month) {
+		return SwissEphDate.ENGINE.compute(sw -> calculate(sw, month.start, month.location, month.offsets, month.dayStarts, month.sunset));
+	}
+
+	// dayStarts has one more entry than sunsets, the end of the last day
+	static PlanetOverview calculate(SwissEph sw, LocalDate start, GeoLocation location, OffsetTable offsets, double[] dayStarts, double[] sunsets) {
+		long begin = SwissEphDate.METRICS.begin();
+		int days = sunsets.length;
+		PlanetOverview overview = new PlanetOverview(start, days, offsets);
+		for (int day = 0; day < days; day++)
+			overview.dusk[day] = sunsets[day] + DUSK_AFTER_SUNSET;
+
+		RiseSetSweep sweep = new RiseSetSweep(sw, location);
+		double[] position = location.toArray();
+		double[] equatorial = new double[6], horizontal = new double[3], attributes = new double[20];
+		StringBuffer error = new StringBuffer();
+		for (int body = 0; body < BODIES.length; body++) {
+			// The sweep also sets the topocentric position the dusk altitudes below need
+			RiseSetSweep.Events events = DaySummary.sweep(sweep, BODIES[body], dayStarts[0], dayStarts[days]);
+			for (int day = 0; day < days; day++) {
+				int i = body * days + day;
+				overview.rise[i] = events.rise(dayStarts[day], dayStarts[day + 1]);
+				overview.set[i] = events.set(dayStarts[day], dayStarts[day + 1]);
+
+				double time = overview.dusk[day];
+				if (Double.isNaN(time)) {
+					overview.duskAltitude[i] = Double.NaN;
+					time = dayStarts[day];
+				} else {
+					sw.swe_calc_ut(time, BODIES[body], CalculationProfile.active().getFlags() | TOPOCENTRIC, equatorial, error);
+					sw.swe_azalt(time, SweConst.SE_EQU2HOR, position, 0, 22, equatorial, horizontal);
+					overview.duskAltitude[i] = horizontal[2];
+				}
+				sw.swe_pheno_ut(time, BODIES[body], CalculationProfile.active().getFlags(), attributes, error);
+				overview.magnitude[i] = attributes[4];
+			}
+		}
+		SwissEphDate.METRICS.end(CalculationMetrics.Operation.PLANETS, begin);
+		return overview;
+	}
+
+	// *** Range information
+	public int size() { return days; }
+	public LocalDate getStart() { return start; }
+
+	// Returns the index of a date in the range or -1 if it is not covered
+	public int indexOf(LocalDate date) {
+		long day = ChronoUnit.DAYS.between(start, date);
+		return day >= 0 && day < days ? (int) day : -1;
+	}
+
+	// *** Per body and day values, body is an index into BODIES
+	public String getName(int body) { return NAMES[body]; }
+	public double getRise(int body, int day) { return rise[body * days + day]; }
+	public double getSet(int body, int day) { return set[body * days + day]; }
+	public String getRiseTime(int body, int day) { return offsets.format(getRise(body, day)); }
+	public String getSetTime(int body, int day) { return offsets.format(getSet(body, day)); }
+	public double getDuskAltitude(int body, int day) { return duskAltitude[body * days + day]; }
+	public double getMagnitude(int body, int day) { return magnitude[body * days + day]; }
+
+	public boolean isVisible(int body, int day) {
+		int i = body * days + day;
+		return duskAltitude[i] >= VISIBLE_ALTITUDE && magnitude[i] <= VISIBLE_MAGNITUDE;
+	}
+
+	// *** Per day summaries
+
+	// Short names of the planets visible at dusk, eg. "Ve Ju Sa", empty if there are none
+	public String getVisibleShortNames(int day) {
+		StringBuilder names = new StringBuilder();
+		for (int body = 0; body < BODIES.length; body++) {
+			if (isVisible(body, day))
+				names.append(names.length() == 0 ? "" : " ").append(SHORT_NAMES[body]);
+		}
+		return names.toString();
+	}
+
+	// One line per planet for the day popup, eg. "Venus: rises 9:12 sets 19:40, 12 degrees up at dusk, magnitude -4.1"
+	public String describe(int day) {
+		StringBuilder text = new StringBuilder();
+		for (int body = 0; body < BODIES.length; body++) {
+			if (body > 0)
+				text.append('\n');
+			text.append(NAMES[body]).append(": rises ").append(getRiseTime(body, day)).append(" sets ").append(getSetTime(body, day));
+			double altitude = getDuskAltitude(body, day);
+			if (!Double.isNaN(altitude))
+				text.append(String.format(", %.0f degrees up at dusk", altitude));
+			text.append(String.format(", magnitude %.1f", getMagnitude(body, day)));
+			if (isVisible(body, day))
+				text.append(" (visible)");
+		}
+		return text.toString();
+	}
+}
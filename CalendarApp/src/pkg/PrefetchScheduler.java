@@ -0,0 +1,97 @@
+package pkg;
+
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Calculates the months the user is likely to look at next while they look at the current one
+ * Once a month is on screen the next and previous months are calculated, then the same month at the last few
+ * locations used, so the days are already in the DayCache and AlmanacStore when the user gets there
+ * Work runs on one low priority thread and is dropped as soon as the user moves somewhere else,
+ * so it never holds up the month actually being shown
+ */
+
+public class PrefetchScheduler {
+	public static final int RECENT_LOCATIONS = 3; // other locations kept besides the current one
+
+	private final RangeCalculator calculator;
+	private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "month-prefetch");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		return thread;
+	});
+
+	// Incremented whenever the plan changes, months from an older generation aren't started
+	private final AtomicInteger generation = new AtomicInteger();
+	private final Deque<GeoLocation> recentLocations = new ArrayDeque<>();
+	private Future<?> current;
+
+	public PrefetchScheduler(RangeCalculator calculator) {
+		this.calculator = calculator;
+	}
+
+	// Called once a month is fully shown, replaces anything still queued from the month before
+	public synchronized void monthShown(LocalDate date, GeoLocation location) {
+		cancel();
+		List<GeoLocation> others = new ArrayList<>(recentLocations);
+		others.remove(location);
+		remember(location);
+
+		// Most likely next step first
+		List<Runnable> plan = new ArrayList<>();
+		plan.add(() -> calculator.calculateMonth(date.plusMonths(1), location));
+		plan.add(() -> calculator.calculateMonth(date.minusMonths(1), location));
+		for (GeoLocation other : others)
+			plan.add(() -> calculator.calculateMonth(date, other));
+
+		int planGeneration = generation.get();
+		current = worker.submit(() -> {
+			for (Runnable month : plan) {
+				if (generation.get() != planGeneration || Thread.currentThread().isInterrupted())
+					return;
+				try {
+					month.run();
+				} catch (CancellationException e) {
+					return;
+				} catch (RuntimeException e) {
+					System.out.println("Prefetch failed: " + e.getMessage());
+				}
+			}
+		});
+	}
+
+	// Stops prefetching, the month being calculated stops at the end of the day it is on
+	public synchronized void cancel() {
+		generation.incrementAndGet();
+		if (current != null) {
+			current.cancel(true);
+			current = null;
+		}
+	}
+
+	public void shutdown() {
+		cancel();
+		worker.shutdownNow();
+	}
+
+	// Locations used most recently first, the current one included
+	public synchronized List<GeoLocation> getRecentLocations() {
+		return new ArrayList<>(recentLocations);
+	}
+
+	private void remember(GeoLocation location) {
+		recentLocations.remove(location);
+		recentLocations.addFirst(location);
+		while (recentLocations.size() > RECENT_LOCATIONS + 1)
+			recentLocations.removeLast();
+	}
+}
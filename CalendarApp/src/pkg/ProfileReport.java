@@ -0,0 +1,149 @@
+package pkg;
+
+import java.time.LocalDate;
+import swisseph.*;
+
+/*
+ * Compares the FAST and PRECISE calculation profiles over the 1900 - 2100 range the calendar allows, run from
+ * the command line like the tester
+ * Every step days it works out the sun and moon positions, the moon's illumination and the four rise and set
+ * times with each profile, and reports how far FAST is from PRECISE and how long each takes per day
+ * The largest sun or moon difference is what CalculationProfile.MOSHIER_ACCURACY should be, the report says
+ * when it is larger
+ * Without the ephemeris files PRECISE falls back to Moshier, the positions then only differ by rounding (a few
+ * thousandths of an arcsecond), the rise and set times not at all, and the timings show what searching for the
+ * missing files costs
+ *
+ * Usage: ProfileReport [-step days] [-ephe path]
+ */
+
+public class ProfileReport {
+	static final GeoLocation LOCATION = new GeoLocation(-119.4960, 49.803, 334.0); // the tester's and benchmarks' location
+	static final LocalDate FIRST_DATE = LocalDate.of(1900, 1, 1);
+	static final LocalDate LAST_DATE = LocalDate.of(2100, 12, 31);
+	static final int[] EVENTS = { SweConst.SE_CALC_RISE, SweConst.SE_CALC_SET };
+
+	// What one profile worked out for one day
+	static final class Day {
+		final double[] sun = new double[6];
+		final double[] moon = new double[6];
+		final double[] pheno = new double[20];
+		final double[] times = new double[4]; // sunrise, sunset, moonrise, moonset, NaN when there is none
+	}
+
+	// Largest and mean of one kind of difference
+	static final class Difference {
+		final String name;
+		final String unit;
+		double max;
+		double total;
+		int count;
+
+		Difference(String name, String unit) {
+			this.name = name;
+			this.unit = unit;
+		}
+
+		void add(double error) {
+			error = Math.abs(error);
+			max = Math.max(max, error);
+			total += error;
+			count++;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-22s %12.4f %12.4f %-10s %8d", name, count == 0 ? 0 : total / count, max, unit, count);
+		}
+	}
+
+	private final double[] position = LOCATION.toArray();
+	private final StringBuffer error = new StringBuffer();
+	private final DblObj event = new DblObj();
+
+	// Everything the calendar calculates for a day, with the profile's flag
+	Day calculate(SwissEph sw, int flags, double julianDay) {
+		Day day = new Day();
+		sw.swe_calc_ut(julianDay, SwissEphDate.SUN, flags, day.sun, error);
+		sw.swe_calc_ut(julianDay, SwissEphDate.MOON, flags, day.moon, error);
+		sw.swe_pheno(julianDay, SwissEphDate.MOON, flags, day.pheno, error);
+		int i = 0;
+		for (int body : new int[] { SwissEphDate.SUN, SwissEphDate.MOON })
+			for (int riseOrSet : EVENTS) {
+				int ret = sw.swe_rise_trans(julianDay, body, null, flags, riseOrSet, position, 0, 22, event, error);
+				day.times[i++] = ret == 0 ? event.val : Double.NaN;
+			}
+		return day;
+	}
+
+	// Angle between two ecliptic positions in arcseconds
+	static double separation(double[] a, double[] b) {
+		double la = Math.toRadians(a[0]), ba = Math.toRadians(a[1]), lb = Math.toRadians(b[0]), bb = Math.toRadians(b[1]);
+		double cos = Math.sin(ba) * Math.sin(bb) + Math.cos(ba) * Math.cos(bb) * Math.cos(la - lb);
+		return Math.toDegrees(Math.acos(Math.min(1, cos))) * 3600;
+	}
+
+	public static void main(String[] args) {
+		int step = 183;
+		String path = CalculationProfile.ephemerisPath();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "-step": step = Integer.parseInt(args[i + 1]); break;
+			case "-ephe": path = args[i + 1]; break;
+			default:
+				System.err.println("Unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+		System.setProperty("calendar.ephe.path", path);
+
+		ProfileReport report = new ProfileReport();
+		SwissEph fast = CalculationProfile.FAST.newSwissEph();
+		SwissEph precise = CalculationProfile.PRECISE.newSwissEph();
+		int fastFlags = CalculationProfile.FAST.getFlags(), preciseFlags = CalculationProfile.PRECISE.getFlags();
+
+		Difference sun = new Difference("sun position", "arcsec");
+		Difference moon = new Difference("moon position", "arcsec");
+		Difference illumination = new Difference("moon illumination", "%");
+		Difference riseSet = new Difference("rise / set times", "seconds");
+		int missing = 0; // events one profile found and the other didn't
+		long fastNanos = 0, preciseNanos = 0;
+		int days = 0;
+
+		for (LocalDate date = FIRST_DATE; !date.isAfter(LAST_DATE); date = date.plusDays(step)) {
+			double julianDay = EphemerisEngine.julianDay(date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+			long start = System.nanoTime();
+			Day f = report.calculate(fast, fastFlags, julianDay);
+			fastNanos += System.nanoTime() - start;
+			start = System.nanoTime();
+			Day p = report.calculate(precise, preciseFlags, julianDay);
+			preciseNanos += System.nanoTime() - start;
+			days++;
+
+			sun.add(separation(f.sun, p.sun));
+			moon.add(separation(f.moon, p.moon));
+			illumination.add((f.pheno[1] - p.pheno[1]) * 100);
+			for (int i = 0; i < f.times.length; i++) {
+				if (Double.isNaN(f.times[i]) != Double.isNaN(p.times[i]))
+					missing++;
+				else if (!Double.isNaN(f.times[i]))
+					riseSet.add((f.times[i] - p.times[i]) * 86400);
+			}
+		}
+
+		System.out.println("FAST against PRECISE, " + days + " days from " + FIRST_DATE + " to " + LAST_DATE + " every " + step + " days");
+		if (!CalculationProfile.hasFiles(path))
+			System.out.println("Ephemeris files not found in " + path + ", PRECISE fell back to Moshier");
+		System.out.println(String.format("%-22s %12s %12s %-10s %8s", "", "mean", "max", "", "samples"));
+		System.out.println(sun);
+		System.out.println(moon);
+		System.out.println(illumination);
+		System.out.println(riseSet);
+		System.out.println("Rise / set found by only one profile: " + missing);
+		System.out.println(String.format("FAST %.0f us/day, PRECISE %.0f us/day", fastNanos / 1000.0 / days, preciseNanos / 1000.0 / days));
+		double worst = Math.max(sun.max, moon.max);
+		if (worst > CalculationProfile.MOSHIER_ACCURACY)
+			System.out.println(String.format("Moshier is %.4f arcsec off, more than MOSHIER_ACCURACY (%.1f)", worst, CalculationProfile.MOSHIER_ACCURACY));
+		System.out.println("AUTO picks " + CalculationProfile.AUTO.resolve() + " for " + CalculationProfile.requestedAccuracy() + " arcseconds");
+	}
+}
@@ -0,0 +1,204 @@
+package pkg;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.CancellationException;
+import swisseph.*;
+
+/*
+ * Calculates the values the calendar needs for every day of a date range in a single pass
+ * Days are looked up in the DayCache first, then in the location's AlmanacStore on disk, and only the days
+ * in neither are calculated, those are then added to both
+ * Rise and set times of the days calculated come from one RiseSetSweep of the sun and one of the moon over them
+ * instead of separate searches for each day, the sun's also gives the twilights and solar noon
+ * Days are local days in the location's time zone, their bounds come from the result's OffsetTable
+ * Moon phases and exact quarter times come from the LunationTable, and eclipses are looked up in the
+ * EclipseCatalog only once the range has moved past the eclipse found last
+ * A single SwissEph is borrowed from the engine for the whole range rather than once per value
+ */
+
+public class RangeCalculator {
+	private final EphemerisEngine engine;
+	private final DayCache cache;
+	private final boolean stored; // whether days are looked up in and added to the AlmanacStore
+
+	public RangeCalculator() {
+		this(EphemerisEngine.shared(), DayCache.shared());
+	}
+
+	// Told about each day as soon as its moon phase and rise / set times are in the result, eclipses are
+	// filled in afterwards and the result reports isComplete() once everything is done
+	public interface DayListener {
+		void dayCalculated(RangeResult result, int day);
+	}
+
+	public RangeCalculator(EphemerisEngine engine, DayCache cache) {
+		this(engine, cache, true);
+	}
+
+	// Without the store nothing is written to disk, eg. for a server that takes any location
+	public RangeCalculator(EphemerisEngine engine, DayCache cache, boolean stored) {
+		this.engine = engine;
+		this.cache = cache;
+		this.stored = stored;
+	}
+
+	public DayCache getCache() { return cache; }
+
+	// Calculates every day from start to end (both inclusive) at the given location
+	public RangeResult calculate(LocalDate start, LocalDate end, GeoLocation location) {
+		return calculate(start, end, location, null);
+	}
+
+	// Same as above, reporting days to the listener as they are calculated
+	// If the calling thread is interrupted the calculation stops with a CancellationException
+	public RangeResult calculate(LocalDate start, LocalDate end, GeoLocation location, DayListener listener) {
+		int days = (int) ChronoUnit.DAYS.between(start, end) + 1;
+		if (days < 1)
+			throw new IllegalArgumentException("End date " + end + " is before start date " + start);
+
+		long begin = System.nanoTime();
+		RangeResult result = new RangeResult(start, days, location);
+
+		// Days already cached or stored are used as is, a SwissEph is only borrowed if any are missing
+		AlmanacStore store = stored ? AlmanacStore.forLocation(location) : null;
+		DaySummary[] summaries = new DaySummary[days];
+		boolean missing = false;
+		for (int day = 0; day < days; day++) {
+			summaries[day] = cache.get(location, start.plusDays(day));
+			missing |= summaries[day] == null && (store == null || !store.hasDay(AlmanacStore.index(start.toEpochDay() + day)));
+		}
+		if (missing) {
+			engine.compute(sw -> {
+				fill(sw, result, summaries, store, listener);
+				return result;
+			});
+		} else {
+			fill(null, result, summaries, store, listener);
+		}
+		fillEclipses(result, store);
+		result.complete = true;
+		CalculationMetrics.shared().record(CalculationMetrics.Operation.RANGE, System.nanoTime() - begin);
+		return result;
+	}
+
+	// Calculates a whole month at the given location
+	public RangeResult calculateMonth(LocalDate date, GeoLocation location) {
+		return calculate(date.withDayOfMonth(1), date.withDayOfMonth(date.lengthOfMonth()), location);
+	}
+
+	// Copies every day into the result, calculating the days that are neither in summaries nor in the store
+	// (sw is only used for those), store may be null
+	private void fill(SwissEph sw, RangeResult result, DaySummary[] summaries, AlmanacStore store, DayListener listener) {
+		double[] dayStarts = result.dayStarts;
+		double[] data = new double[20];
+		StringBuffer error = new StringBuffer();
+
+		long firstEpochDay = result.start.toEpochDay();
+		LunationTable lunations = LunationTable.shared();
+
+		// The sweeps cover the first to the last day that has to be calculated
+		RiseSetSweep.Events sun = null, moon = null;
+		if (sw != null) {
+			int first = -1, last = -1;
+			for (int day = 0; day < result.size(); day++) {
+				if (summaries[day] == null && (store == null || !store.hasDay(AlmanacStore.index(firstEpochDay + day)))) {
+					if (first < 0)
+						first = day;
+					last = day;
+				}
+			}
+			if (first >= 0) {
+				RiseSetSweep sweep = new RiseSetSweep(sw, result.location);
+				sun = DaySummary.sweepSun(sweep, dayStarts[first], dayStarts[last + 1]);
+				moon = DaySummary.sweep(sweep, SwissEphDate.MOON, dayStarts[first], dayStarts[last + 1]);
+			}
+		}
+
+		for (int day = 0; day < result.size(); day++) {
+			DaySummary summary = summaries[day];
+			int index = AlmanacStore.index(firstEpochDay + day);
+
+			// Stored days are copied straight from the mapped file without making a DaySummary
+			if (summary == null && store != null && store.hasDay(index)) {
+				store.copyDay(index, result, day);
+			} else {
+				if (summary == null) {
+					summary = DaySummary.calculate(sw, result.getDate(day), result.offsets, dayStarts[day], dayStarts[day + 1],
+							data, error, sun, moon);
+					cache.put(result.location, summary);
+					if (store != null)
+						store.putDay(summary);
+				}
+
+				result.illumination[day] = summary.getIllumination();
+				result.phase[day] = (byte) summary.getMoonPhase().ordinal();
+				result.sunrise[day] = summary.getSunrise();
+				result.sunset[day] = summary.getSunset();
+				result.moonrise[day] = summary.getMoonrise();
+				result.moonset[day] = summary.getMoonset();
+				result.solarNoon[day] = summary.getSolarNoon();
+				result.dayLength[day] = summary.getDayLength();
+				for (DaySummary.Twilight twilight : DaySummary.Twilight.values()) {
+					result.dawn[twilight.ordinal() * result.size() + day] = summary.getDawn(twilight);
+					result.dusk[twilight.ordinal() * result.size() + day] = summary.getDusk(twilight);
+				}
+			}
+
+			LunationTable.Lunation lunation = lunations.lunationOn(sw, dayStarts[day], dayStarts[day + 1]);
+			result.lunation[day] = lunation != null ? lunation.getJulianDay() : Double.NaN;
+			result.lunationQuarter[day] = (byte) (lunation != null ? lunation.getQuarter().ordinal() : -1);
+
+			checkCancelled();
+			if (listener != null)
+				listener.dayCalculated(result, day);
+		}
+	}
+
+	// Eclipses come from the store or the catalog, done after the pass above so the borrowed SwissEph isn't held while it searches
+	private void fillEclipses(RangeResult result, AlmanacStore store) {
+		long firstEpochDay = result.start.toEpochDay();
+		double nextSolar = Double.NEGATIVE_INFINITY, nextLunar = Double.NEGATIVE_INFINITY;
+		int solarDate = 0, lunarDate = 0;
+
+		for (int day = 0; day < result.size(); day++) {
+			double dayStart = result.dayStarts[day];
+			int index = AlmanacStore.index(firstEpochDay + day);
+			double solar = nextSolar, lunar = nextLunar;
+
+			if (store != null && store.hasEclipses(index)) {
+				solar = store.getNextSolarEclipse(index);
+				lunar = store.getNextLunarEclipse(index);
+			} else {
+				// The next eclipse only changes once the day has passed the one already found
+				if (solar < dayStart)
+					solar = SwissEphDate.nextEclipse(EclipseCatalog.solar(), dayStart, result.location);
+				if (lunar < dayStart)
+					lunar = SwissEphDate.nextEclipse(EclipseCatalog.lunar(), dayStart, result.location);
+				if (store != null)
+					store.putEclipses(index, solar, lunar);
+			}
+			// Local dates only worked out when the eclipse changes, they are usually past the result's OffsetTable
+			if (solar != nextSolar)
+				solarDate = localEpochDay(solar, result.location);
+			if (lunar != nextLunar)
+				lunarDate = localEpochDay(lunar, result.location);
+			nextSolar = solar;
+			nextLunar = lunar;
+			result.nextSolarEclipse[day] = nextSolar;
+			result.nextLunarEclipse[day] = nextLunar;
+			result.nextSolarEclipseDate[day] = solarDate;
+			result.nextLunarEclipseDate[day] = lunarDate;
+		}
+		checkCancelled();
+	}
+
+	private static int localEpochDay(double julianDay, GeoLocation location) {
+		return (int) OffsetTable.covering(location.getZone(), julianDay, julianDay).toLocalDate(julianDay).toEpochDay();
+	}
+
+	private static void checkCancelled() {
+		if (Thread.currentThread().isInterrupted())
+			throw new CancellationException("Range calculation cancelled");
+	}
+}
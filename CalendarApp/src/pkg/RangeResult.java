@@ -0,0 +1,127 @@
+package pkg;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+/*
+ * Results of a RangeCalculator run, one entry per day of the range
+ * Values are kept in primitive arrays indexed by day (0 is the start date) instead of one object per day
+ * Rise and set times and eclipses are stored as julian dates (UT) and only formatted when asked for,
+ * a rise or set that doesn't happen is stored as NaN like in DaySummary
+ * Days are local days in the location's time zone, and local times come from one OffsetTable built for the range
+ */
+
+public class RangeResult {
+	final LocalDate start;
+	final GeoLocation location;
+	final OffsetTable offsets;
+	final double[] dayStarts; // julian date (UT) each local day starts at, one more than there are days
+
+	final double[] illumination; // % of the moon lit at the start of the day
+	final byte[] phase; // MoonPhase ordinal
+	final double[] sunrise;
+	final double[] sunset;
+	final double[] moonrise;
+	final double[] moonset;
+	final double[] nextSolarEclipse;
+	final double[] nextLunarEclipse;
+	final int[] nextSolarEclipseDate; // local epoch day of the eclipses above
+	final int[] nextLunarEclipseDate;
+	final double[] lunation; // exact time of a new moon, quarter or full moon during the day, NaN if none
+	final byte[] lunationQuarter; // LunationTable.Quarter ordinal, -1 if none
+	final double[] solarNoon;
+	final double[] dayLength; // days, see DaySummary
+	final double[] dawn; // [twilight * days + day], twilight the DaySummary.Twilight ordinal
+	final double[] dusk;
+
+	volatile boolean complete; // set once every value including eclipses has been calculated
+
+	RangeResult(LocalDate start, int days, GeoLocation location) {
+		this.start = start;
+		this.location = location;
+		double first = EphemerisEngine.julianDay(start.getYear(), start.getMonthValue(), start.getDayOfMonth());
+		offsets = OffsetTable.of(location.getZone(), first - 1, first + days + 1);
+		dayStarts = new double[days + 1];
+		for (int day = 0; day <= days; day++)
+			dayStarts[day] = offsets.startOfDay(start.plusDays(day));
+
+		illumination = new double[days];
+		phase = new byte[days];
+		sunrise = new double[days];
+		sunset = new double[days];
+		moonrise = new double[days];
+		moonset = new double[days];
+		nextSolarEclipse = new double[days];
+		nextLunarEclipse = new double[days];
+		nextSolarEclipseDate = new int[days];
+		nextLunarEclipseDate = new int[days];
+		lunation = new double[days];
+		lunationQuarter = new byte[days];
+		solarNoon = new double[days];
+		dayLength = new double[days];
+		dawn = new double[DaySummary.Twilight.values().length * days];
+		dusk = new double[DaySummary.Twilight.values().length * days];
+	}
+
+	// *** Range information
+	public int size() { return phase.length; }
+	public LocalDate getStart() { return start; }
+	public LocalDate getEnd() { return start.plusDays(size() - 1); }
+	public GeoLocation getLocation() { return location; }
+	public LocalDate getDate(int day) { return start.plusDays(day); }
+	public OffsetTable getOffsets() { return offsets; }
+	public boolean isComplete() { return complete; }
+
+	// Returns the index of a date in the range or -1 if it is not covered
+	public int indexOf(LocalDate date) {
+		long day = ChronoUnit.DAYS.between(start, date);
+		return day >= 0 && day < size() ? (int) day : -1;
+	}
+
+	// *** Per day values, same meaning and format as the matching SwissEphDate methods
+	public double getMoonPhasePercent(int day) { return illumination[day]; }
+	public MoonPhase getMoonPhase(int day) { return MoonPhase.values()[phase[day]]; }
+
+	public String getSunriseTime(int day) { return offsets.format(sunrise[day]); }
+	public String getSunsetTime(int day) { return offsets.format(sunset[day]); }
+	public String getMoonriseTime(int day) { return offsets.format(moonrise[day]); }
+	public String getMoonsetTime(int day) { return offsets.format(moonset[day]); }
+	public String getSolarNoonTime(int day) { return offsets.format(solarNoon[day]); }
+	public String getDayLength(int day) { return DaySummary.formatDuration(dayLength[day]); }
+	public String getDawnTime(DaySummary.Twilight twilight, int day) { return offsets.format(dawn[twilight.ordinal() * size() + day]); }
+	public String getDuskTime(DaySummary.Twilight twilight, int day) { return offsets.format(dusk[twilight.ordinal() * size() + day]); }
+
+	// Local date and time of an event, null if it doesn't happen that day
+	public LocalDateTime getLocalDateTime(DaySummary.Event e, int day) {
+		switch (e) {
+		case SUNRISE: return offsets.toLocalDateTime(sunrise[day]);
+		case SUNSET: return offsets.toLocalDateTime(sunset[day]);
+		case MOONRISE: return offsets.toLocalDateTime(moonrise[day]);
+		default: return offsets.toLocalDateTime(moonset[day]);
+		}
+	}
+
+	// All of the day's rise / set times, twilight and moon values as one DaySummary
+	public DaySummary getDaySummary(int day) {
+		int twilights = DaySummary.Twilight.values().length;
+		double[] dayDawn = new double[twilights], dayDusk = new double[twilights];
+		for (int twilight = 0; twilight < twilights; twilight++) {
+			dayDawn[twilight] = dawn[twilight * size() + day];
+			dayDusk[twilight] = dusk[twilight * size() + day];
+		}
+		return new DaySummary(getDate(day), offsets, sunrise[day], sunset[day], moonrise[day], moonset[day],
+				illumination[day], getMoonPhase(day), solarNoon[day], dayLength[day], dayDawn, dayDusk);
+	}
+
+	public LocalDate getNextSolarEclipse(int day) { return LocalDate.ofEpochDay(nextSolarEclipseDate[day]); }
+	public LocalDate getNextLunarEclipse(int day) { return LocalDate.ofEpochDay(nextLunarEclipseDate[day]); }
+	public boolean isSolarEclipse(int day) { return getNextSolarEclipse(day).equals(getDate(day)); }
+	public boolean isLunarEclipse(int day) { return getNextLunarEclipse(day).equals(getDate(day)); }
+
+	// New moon, quarter or full moon during the day, null if none, and its exact local time eg. 8:57
+	public LunationTable.Quarter getLunationQuarter(int day) {
+		return lunationQuarter[day] < 0 ? null : LunationTable.Quarter.values()[lunationQuarter[day]];
+	}
+	public String getLunationTime(int day) { return offsets.format(lunation[day]); }
+}
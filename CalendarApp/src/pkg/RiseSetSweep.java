@@ -0,0 +1,441 @@
+package pkg;
+
+import java.util.Arrays;
+import swisseph.*;
+
+/*
+ * Rise, set and meridian transit times of the sun, moon or a planet over a whole date range in one pass
+ * The meridian transits are found first, each one predicted from the transit before it, and the body's altitude
+ * only climbs between a lower transit and the next upper one and only falls after it, so every rise and set
+ * is bracketed by two transits and is found by root finding inside that bracket starting from where the
+ * previous one happened
+ * A body that is still above the horizon at its lower transit doesn't set that day and one still below it at
+ * its upper transit doesn't rise, which is how polar day and night come out
+ * Altitudes are worked out the way swe_rise_trans does it (topocentric, upper limb, refraction for the
+ * pressure at the site's elevation and 22 degrees) so the times agree with it to well under a second
+ * A sweep can also look for the body's centre crossing other altitudes without refraction, the way swe_rise_trans
+ * finds twilight, eg. -6 degrees for the sun's civil dawn and dusk, these come out of the same transit brackets
+ * and positions as the rises and sets
+ * The horizon conversion is done here rather than with swe_azalt, and sidereal time is taken from one swe_sidtime
+ * a day and the sidereal rate, both library calls work out the nutation every time and cost as much as a position
+ * The sun and planets move slowly enough that their positions are worked out only every NODE_STEP days and
+ * interpolated in between, geocentric with the parallax taken off the altitude, so they cost a few calculations
+ * a day instead of one for every step of the root finding, only the moon is calculated at every step
+ */
+
+public final class RiseSetSweep {
+	// What a body does during a day
+	public enum Horizon { RISES_AND_SETS, ALWAYS_UP, ALWAYS_DOWN }
+
+	private static final int TOPOCENTRIC = SweConst.SEFLG_EQUATORIAL | SweConst.SEFLG_TOPOCTR; // with the profile's ephemeris
+	private static final double AU = 1.4959787066E11; // metres
+	private static final double SUN_DIAMETER = 1.392E9;
+	private static final double MOON_DIAMETER = 3476300.0;
+	private static final double EARTH_RADIUS = 6378136.6;
+	private static final double NODE_STEP = 0.5; // days between the positions interpolated from
+	private static final int GEOCENTRIC = SweConst.SEFLG_EQUATORIAL; // with the profile's ephemeris
+	private static final double SIDEREAL_RATE = 360.98564736629; // degrees of sidereal time a day
+	private static final double TOLERANCE = 1e-7; // days, about 0.01 seconds
+	private static final double SEED_STEP = 0.005; // days, how far past the seed to look for the other side of the root
+	private static final int HORIZON = 0; // target of rising and setting, the others are the extra altitudes
+
+	private final SwissEph sw;
+	private final SwissLib lib = new SwissLib();
+	private final double[] position;
+	private final double[] equatorial = new double[6];
+	private final double sinLatitude;
+	private final double cosLatitude;
+	private double risingAltitude = Double.NaN; // only depends on the site, worked out by the first sweep
+	private double siderealDay = Double.NaN; // time siderealTime was last worked out with swe_sidtime
+	private double siderealTime; // degrees
+	private final StringBuffer error = new StringBuffer();
+	private double calculatedDay = Double.NaN; // time and body now in equatorial
+	private int calculatedBody = -1;
+	private int evaluations;
+	private double[] nodes; // right ascension, declination and distance every NODE_STEP from nodeStart
+	private double nodeStart;
+	private int nodeCount;
+	private int nodeBody = -1;
+
+	// Set for each sweep
+	private double diameter;
+	private double[] targets; // the extra altitudes, targets[k - 1] for target k
+
+	// sw is a SwissEph the caller has borrowed, it is used from the calling thread only
+	public RiseSetSweep(SwissEph sw, GeoLocation location) {
+		this.sw = sw;
+		this.position = location.toArray();
+		sinLatitude = Math.sin(Math.toRadians(position[1]));
+		cosLatitude = Math.cos(Math.toRadians(position[1]));
+	}
+
+	// Ephemeris calculations done so far, each one a swe_calc_ut
+	public int getEvaluations() { return evaluations; }
+
+	// Every rise, set and transit of the body (SwissEphDate.SUN, MOON or a planet) from julian date from to to (UT),
+	// and every time its centre goes up or down through each of the altitudes (degrees, no refraction)
+	public Events sweep(int body, double from, double to, double... altitudes) {
+		sw.swe_set_topo(position[0], position[1], position[2]);
+		if (Double.isNaN(risingAltitude))
+			risingAltitude = risingAltitude(from);
+		double period = body == SwissEphDate.MOON ? 1.035 : 1.0; // mean time from one transit to the next
+		diameter = diameter(body);
+		targets = altitudes.clone();
+		nodeBody = -1;
+		if (body != SwissEphDate.MOON)
+			calculateNodes(body, from - period - 1, to + 3);
+		calculatedDay = Double.NaN;
+		int count = altitudes.length + 1;
+		Events events = new Events(count, (int) ((to - from) / period) + 4);
+
+		// Height above each target at the transits either side of the crossings looked for
+		double[] lowerAbove = new double[count], upperAbove = new double[count], nextLowerAbove = new double[count];
+		double[] previousUp = new double[count], previousDown = new double[count];
+		Arrays.fill(previousUp, Double.NaN);
+		Arrays.fill(previousDown, Double.NaN);
+
+		// Start a transit early so the first rise or set is bracketed, go on until a lower transit is past the end
+		double lower = transit(body, from - period, 180, period);
+		above(body, lower, lowerAbove);
+		double upper = Double.NaN, previousUpper = Double.NaN;
+		while (lower < to) {
+			previousUpper = upper;
+			upper = transit(body, lower + period / 2, 0, period);
+			above(body, upper, upperAbove);
+			for (int k = 0; k < count; k++) {
+				if (lowerAbove[k] < 0 && upperAbove[k] >= 0) {
+					double seed = Double.isNaN(previousUp[k]) ? Double.NaN : upper - (previousUpper - previousUp[k]);
+					previousUp[k] = crossing(body, k, lower, lowerAbove[k], upper, upperAbove[k], seed);
+					events.addUp(k, previousUp[k]);
+				} else {
+					previousUp[k] = Double.NaN;
+				}
+			}
+			events.addTransit(upper, upperAbove[HORIZON]);
+
+			double nextLower = transit(body, upper + period / 2, 180, period);
+			above(body, nextLower, nextLowerAbove);
+			for (int k = 0; k < count; k++) {
+				if (upperAbove[k] >= 0 && nextLowerAbove[k] < 0) {
+					double seed = Double.isNaN(previousDown[k]) || Double.isNaN(previousUpper) ? Double.NaN : upper + (previousDown[k] - previousUpper);
+					previousDown[k] = crossing(body, k, upper, upperAbove[k], nextLower, nextLowerAbove[k], seed);
+					events.addDown(k, previousDown[k]);
+				} else {
+					previousDown[k] = Double.NaN;
+				}
+			}
+			lower = nextLower;
+			double[] swap = lowerAbove;
+			lowerAbove = nextLowerAbove;
+			nextLowerAbove = swap;
+		}
+		return events;
+	}
+
+	// *** Root finding
+
+	// Time the hour angle is targetHourAngle (0 upper transit, 180 lower) closest to the prediction, by the secant method
+	private double transit(int body, double prediction, double targetHourAngle, double period) {
+		double rate = 360 / period; // degrees of hour angle a day, close enough to start the secant method
+		double t0 = prediction, h0 = hourAngle(body, t0, targetHourAngle);
+		double t1 = t0 - h0 / rate;
+		for (int i = 0; i < 10; i++) {
+			double h1 = hourAngle(body, t1, targetHourAngle);
+			if (h1 == h0)
+				break;
+			double step = h1 * (t1 - t0) / (h1 - h0);
+			t0 = t1;
+			h0 = h1;
+			t1 -= step;
+			if (Math.abs(step) < TOLERANCE)
+				break;
+		}
+		return t1;
+	}
+
+	// Time the height above the target goes through 0 between a and b, which have heights of opposite signs
+	// Illinois method, starting with the seed (where the previous day's event suggests the root is) and a point
+	// a few minutes past it, which nearly always bracket the root tightly
+	private double crossing(int body, int target, double a, double fa, double b, double fb, double seed) {
+		boolean seeded = seed > a && seed < b;
+		double t = seeded ? seed : (a * fb - b * fa) / (fb - fa);
+		int side = 0;
+		for (int i = 0; i < 60 && b - a > TOLERANCE; i++) {
+			double ft = above(body, t, target);
+			if (ft == 0)
+				return t;
+			if ((ft < 0) == (fa < 0)) {
+				a = t;
+				fa = ft;
+				if (side == -1)
+					fb /= 2;
+				side = -1;
+			} else {
+				b = t;
+				fb = ft;
+				if (side == 1)
+					fa /= 2;
+				side = 1;
+			}
+			if (i == 0 && seeded)
+				t = side == -1 ? Math.min(t + SEED_STEP, (t + b) / 2) : Math.max(t - SEED_STEP, (a + t) / 2);
+			else
+				t = (a * fb - b * fa) / (fb - fa);
+		}
+		return (a * fb - b * fa) / (fb - fa);
+	}
+
+	// *** Ephemeris
+
+	// Hour angle minus the target, between -180 and 180 degrees
+	private double hourAngle(int body, double julianDay, double target) {
+		calculate(body, julianDay);
+		double angle = localSiderealTime(julianDay) - equatorial[0] - target;
+		return angle - 360 * Math.floor((angle + 180) / 360);
+	}
+
+	// Height above every target from one position
+	private void above(int body, double julianDay, double[] heights) {
+		double altitude = trueAltitude(body, julianDay);
+		for (int k = 0; k < heights.length; k++)
+			heights[k] = above(altitude, k);
+	}
+
+	private double above(int body, double julianDay, int target) {
+		return above(trueAltitude(body, julianDay), target);
+	}
+
+	// Height of the body above a target from its true altitude and the distance now in equatorial
+	// The horizon target is the upper limb above the rising altitude, positive when swe_rise_trans would have it
+	// risen, the others are the centre above the target's altitude
+	private double above(double altitude, int target) {
+		if (target != HORIZON)
+			return altitude - targets[target - 1];
+		return altitude + Math.toDegrees(Math.asin(diameter / 2 / AU / equatorial[2])) - risingAltitude;
+	}
+
+	// True altitude of the body's centre seen from the site, without refraction
+	private double trueAltitude(int body, double julianDay) {
+		calculate(body, julianDay);
+		double hourAngle = Math.toRadians(localSiderealTime(julianDay) - equatorial[0]);
+		double declination = Math.toRadians(equatorial[1]);
+		double altitude = Math.toDegrees(Math.asin(sinLatitude * Math.sin(declination) + cosLatitude * Math.cos(declination) * Math.cos(hourAngle)));
+		if (body == nodeBody) // geocentric, lower it by the parallax to where it is seen from the site
+			altitude -= Math.toDegrees(Math.asin(EARTH_RADIUS / AU / equatorial[2])) * Math.cos(Math.toRadians(altitude));
+		return altitude;
+	}
+
+	// Local apparent sidereal time in degrees, what swe_sidtime gives plus the longitude
+	// swe_sidtime is only called again once the time is half a day from the last call, the nutation it includes
+	// drifts by thousandths of a second of time in that half day
+	private double localSiderealTime(double julianDay) {
+		if (!(Math.abs(julianDay - siderealDay) < 0.5)) {
+			siderealDay = julianDay;
+			siderealTime = lib.swe_sidtime(julianDay) * 15;
+		}
+		return siderealTime + (julianDay - siderealDay) * SIDEREAL_RATE + position[0];
+	}
+
+	// Same diameters swe_rise_trans uses
+	private static double diameter(int body) {
+		switch (body) {
+		case SweConst.SE_SUN: return SUN_DIAMETER;
+		case SweConst.SE_MOON: return MOON_DIAMETER;
+		case SweConst.SE_MERCURY: return 4879400.0;
+		case SweConst.SE_VENUS: return 12103600.0;
+		case SweConst.SE_MARS: return 6779000.0;
+		case SweConst.SE_JUPITER: return 139822000.0;
+		case SweConst.SE_SATURN: return 116464000.0;
+		default: return 0;
+		}
+	}
+
+	// True altitude at which refraction lifts a body to the horizon (about -0.6 degrees), found by bisection on the
+	// conversions swe_rise_trans does: true altitude to equatorial and back to the horizon with refraction
+	// Refraction stops being applied a little below the horizon, so at sea level the apparent altitude jumps across 0
+	// here, working with the true altitude keeps the root finding on a smooth function
+	private double risingAltitude(double julianDay) {
+		double[] equator = new double[6], horizon = new double[3];
+		double below = -5, above = 1;
+		for (int i = 0; i < 60; i++) {
+			double middle = (below + above) / 2;
+			sw.swe_azalt_rev(julianDay, SweConst.SE_HOR2EQU, position, new double[] { 180, middle, 0 }, equator);
+			sw.swe_azalt(julianDay, SweConst.SE_EQU2HOR, position, 0, 22, equator, horizon);
+			if (horizon[2] < 0)
+				below = middle;
+			else
+				above = middle;
+		}
+		return above;
+	}
+
+	// Right ascension, declination and distance into equatorial, reused if the last calculation was for the same time
+	// The sun's and planets' come from the nodes and are geocentric
+	private void calculate(int body, double julianDay) {
+		if (julianDay == calculatedDay && body == calculatedBody)
+			return;
+		if (body == nodeBody) {
+			interpolate(julianDay);
+		} else {
+			sw.swe_calc_ut(julianDay, body, CalculationProfile.active().getFlags() | TOPOCENTRIC, equatorial, error);
+			evaluations++;
+		}
+		calculatedDay = julianDay;
+		calculatedBody = body;
+	}
+
+	// Geocentric positions of the body every NODE_STEP days from from to to
+	private void calculateNodes(int body, double from, double to) {
+		nodeCount = (int) Math.ceil((to - from) / NODE_STEP) + 1;
+		if (nodes == null || nodes.length < nodeCount * 3)
+			nodes = new double[nodeCount * 3];
+		nodeStart = from;
+		double[] x = new double[6];
+		int flags = CalculationProfile.active().getFlags() | GEOCENTRIC;
+		for (int i = 0; i < nodeCount; i++) {
+			sw.swe_calc_ut(from + i * NODE_STEP, body, flags, x, error);
+			nodes[i * 3] = x[0];
+			nodes[i * 3 + 1] = x[1];
+			nodes[i * 3 + 2] = x[2];
+			evaluations++;
+		}
+		nodeBody = body;
+	}
+
+	// Quadratic through the three nodes around the time, right ascension unwrapped around the middle one
+	private void interpolate(double julianDay) {
+		int i = (int) Math.round((julianDay - nodeStart) / NODE_STEP);
+		i = Math.max(1, Math.min(nodeCount - 2, i));
+		double u = (julianDay - nodeStart) / NODE_STEP - i;
+		for (int k = 0; k < 3; k++) {
+			double before = nodes[(i - 1) * 3 + k], middle = nodes[i * 3 + k], after = nodes[(i + 1) * 3 + k];
+			if (k == 0) {
+				before = middle + Math.IEEEremainder(before - middle, 360);
+				after = middle + Math.IEEEremainder(after - middle, 360);
+			}
+			equatorial[k] = middle + u * (after - before) / 2 + u * u * (after - 2 * middle + before) / 2;
+		}
+	}
+
+	// *** Results
+
+	// The events of one sweep in time order, julian dates (UT)
+	// Crossings are kept per target, 0 being the horizon (rises and sets) and k the sweep's altitude k - 1
+	public static final class Events {
+		private final double[][] ups; // rises for the horizon, dawns for a twilight altitude
+		private final double[][] downs; // sets or dusks
+		private final int[] upCount;
+		private final int[] downCount;
+		private double[] transits;
+		private double[] transitAltitudes; // altitude of the upper limb above the rising altitude at each transit
+		private int transitCount;
+
+		Events(int targets, int capacity) {
+			ups = new double[targets][capacity];
+			downs = new double[targets][capacity];
+			upCount = new int[targets];
+			downCount = new int[targets];
+			transits = new double[capacity];
+			transitAltitudes = new double[capacity];
+		}
+
+		private void addUp(int target, double julianDay) {
+			if (upCount[target] == ups[target].length)
+				ups[target] = Arrays.copyOf(ups[target], upCount[target] * 2);
+			ups[target][upCount[target]++] = julianDay;
+		}
+
+		private void addDown(int target, double julianDay) {
+			if (downCount[target] == downs[target].length)
+				downs[target] = Arrays.copyOf(downs[target], downCount[target] * 2);
+			downs[target][downCount[target]++] = julianDay;
+		}
+
+		private void addTransit(double julianDay, double altitude) {
+			if (transitCount == transits.length) {
+				transits = Arrays.copyOf(transits, transitCount * 2);
+				transitAltitudes = Arrays.copyOf(transitAltitudes, transitCount * 2);
+			}
+			transits[transitCount] = julianDay;
+			transitAltitudes[transitCount++] = altitude;
+		}
+
+		// First event from start to end (julian dates UT, usually a local day), NaN if there is none
+		// Same answer as swe_rise_trans called at the start if it finds the event before the end
+		public double rise(double start, double end) { return first(ups[HORIZON], upCount[HORIZON], start, end); }
+		public double set(double start, double end) { return first(downs[HORIZON], downCount[HORIZON], start, end); }
+		public double transit(double start, double end) { return first(transits, transitCount, start, end); }
+
+		// First time the centre goes up or down through the sweep's altitude (index into the altitudes it was given)
+		public double up(int altitude, double start, double end) { return first(ups[altitude + 1], upCount[altitude + 1], start, end); }
+		public double down(int altitude, double start, double end) { return first(downs[altitude + 1], downCount[altitude + 1], start, end); }
+
+		// Whether the body rises or sets from start to end, or stays up or down the whole time
+		public Horizon horizon(double start, double end) {
+			if (!Double.isNaN(rise(start, end)) || !Double.isNaN(set(start, end)))
+				return Horizon.RISES_AND_SETS;
+			return isUp(start) ? Horizon.ALWAYS_UP : Horizon.ALWAYS_DOWN;
+		}
+
+		// Days from start to end the body spends above the horizon
+		public double timeUp(double start, double end) {
+			int r = firstAtOrAfter(ups[HORIZON], upCount[HORIZON], start), s = firstAtOrAfter(downs[HORIZON], downCount[HORIZON], start);
+			boolean up = isUp(start);
+			double total = 0, from = start;
+			while (true) {
+				double rise = r < upCount[HORIZON] ? ups[HORIZON][r] : Double.POSITIVE_INFINITY;
+				double set = s < downCount[HORIZON] ? downs[HORIZON][s] : Double.POSITIVE_INFINITY;
+				double next = Math.min(Math.min(rise, set), end);
+				if (up)
+					total += next - from;
+				if (next >= end)
+					return total;
+				up = rise < set;
+				if (up)
+					r++;
+				else
+					s++;
+				from = next;
+			}
+		}
+
+		public double[] getRises() { return Arrays.copyOf(ups[HORIZON], upCount[HORIZON]); }
+		public double[] getSets() { return Arrays.copyOf(downs[HORIZON], downCount[HORIZON]); }
+		public double[] getTransits() { return Arrays.copyOf(transits, transitCount); }
+
+		// Whether the body is above the horizon at a time, from the last rise or set before it, the next one after
+		// it if the sweep has none before, or from the nearest transit if it has none at all
+		private boolean isUp(double julianDay) {
+			int r = firstAtOrAfter(ups[HORIZON], upCount[HORIZON], julianDay), s = firstAtOrAfter(downs[HORIZON], downCount[HORIZON], julianDay);
+			double lastRise = r > 0 ? ups[HORIZON][r - 1] : Double.NEGATIVE_INFINITY;
+			double lastSet = s > 0 ? downs[HORIZON][s - 1] : Double.NEGATIVE_INFINITY;
+			if (lastRise != lastSet)
+				return lastRise > lastSet;
+			double nextRise = r < upCount[HORIZON] ? ups[HORIZON][r] : Double.POSITIVE_INFINITY;
+			double nextSet = s < downCount[HORIZON] ? downs[HORIZON][s] : Double.POSITIVE_INFINITY;
+			if (nextRise != nextSet)
+				return nextSet < nextRise;
+			int i = firstAtOrAfter(transits, transitCount, julianDay);
+			if (i == transitCount)
+				i--;
+			return transitAltitudes[i] >= 0;
+		}
+
+		private static double first(double[] events, int count, double start, double end) {
+			int i = firstAtOrAfter(events, count, start);
+			return i < count && events[i] < end ? events[i] : Double.NaN;
+		}
+
+		private static int firstAtOrAfter(double[] events, int count, double julianDay) {
+			int low = 0, high = count;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (events[mid] < julianDay)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			return low;
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package pkg;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.zip.CRC32;
+
+/*
+ * The month on screen when the app was last closed, where it was for and everything calculated for it, kept in
+ * one small file so the next launch can draw that month before any ephemeris work or store lookups
+ * The app shows the snapshot straight away and then loads the month again in the background as usual, the fresh
+ * values replace the snapshot's as they arrive so a stale snapshot is only ever on screen for a moment
+ * A file from another version or calculation profile, or whose checksum or values don't check out, is ignored
+ * Saved as session.bin next to the AlmanacStore files, -Dcalendar.snapshot=false turns it off
+ *
+ * Layout: magic, version, ephemeris flags, then a CRC32 of the rest and the rest
+ *   start (epoch day) days, longitude latitude elevation, zone id, complete, then the RangeResult columns day by day
+ */
+
+public final class SessionSnapshot {
+	static final int MAGIC = 0x53455353; // "SESS"
+	static final int VERSION = 2; // 2: twilight, solar noon and day length
+	static final int MAX_DAYS = 31; // a month
+
+	private static final boolean ENABLED = !"false".equals(System.getProperty("calendar.snapshot"));
+
+	private SessionSnapshot() {
+	}
+
+	static File file() {
+		return new File(AlmanacStore.directory(), "session.bin");
+	}
+
+	// The last session's month, or null if there is none or it can't be used
+	public static RangeResult load() {
+		if (!ENABLED)
+			return null;
+		File file = file();
+		if (!file.isFile())
+			return null;
+		try (InputStream in = new FileInputStream(file)) {
+			return read(in);
+		} catch (IOException | DateTimeException | IllegalArgumentException e) {
+			System.out.println("Session snapshot ignored: " + e.getMessage());
+			return null;
+		}
+	}
+
+	// Replaces the snapshot with a finished month, written to a temporary file first so a crash never leaves half a file
+	public static void save(RangeResult result) {
+		if (!ENABLED || !result.isComplete() || result.size() > MAX_DAYS)
+			return;
+		File file = file();
+		File temporary = new File(file.getPath() + ".tmp");
+		try {
+			File parent = file.getParentFile();
+			if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+				throw new IOException("Could not create " + parent);
+			try (OutputStream out = new FileOutputStream(temporary)) {
+				write(result, out);
+			}
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			System.out.println("Session snapshot not saved: " + e.getMessage());
+		}
+	}
+
+	// Days whose values differ between the snapshot and a fresh calculation of the same month
+	public static int differences(RangeResult snapshot, RangeResult fresh) {
+		if (!snapshot.getStart().equals(fresh.getStart()) || snapshot.size() != fresh.size() || !snapshot.getLocation().equals(fresh.getLocation()))
+			return fresh.size();
+		int differences = 0;
+		for (int day = 0; day < fresh.size(); day++) {
+			if (!snapshot.getDaySummary(day).toString().equals(fresh.getDaySummary(day).toString())
+					|| snapshot.nextSolarEclipseDate[day] != fresh.nextSolarEclipseDate[day]
+					|| snapshot.nextLunarEclipseDate[day] != fresh.nextLunarEclipseDate[day]
+					|| snapshot.lunationQuarter[day] != fresh.lunationQuarter[day])
+				differences++;
+		}
+		return differences;
+	}
+
+	// *** Format
+
+	static void write(RangeResult result, OutputStream stream) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream body = new DataOutputStream(bytes);
+		GeoLocation location = result.getLocation();
+		body.writeLong(result.getStart().toEpochDay());
+		body.writeInt(result.size());
+		body.writeDouble(location.getLongitude());
+		body.writeDouble(location.getLatitude());
+		body.writeDouble(location.getElevation());
+		body.writeUTF(location.getZone().getId());
+		body.writeBoolean(result.isComplete());
+		int days = result.size();
+		for (int day = 0; day < days; day++) {
+			body.writeDouble(result.illumination[day]);
+			body.writeByte(result.phase[day]);
+			body.writeDouble(result.sunrise[day]);
+			body.writeDouble(result.sunset[day]);
+			body.writeDouble(result.moonrise[day]);
+			body.writeDouble(result.moonset[day]);
+			body.writeDouble(result.nextSolarEclipse[day]);
+			body.writeDouble(result.nextLunarEclipse[day]);
+			body.writeInt(result.nextSolarEclipseDate[day]);
+			body.writeInt(result.nextLunarEclipseDate[day]);
+			body.writeDouble(result.lunation[day]);
+			body.writeByte(result.lunationQuarter[day]);
+			body.writeDouble(result.solarNoon[day]);
+			body.writeDouble(result.dayLength[day]);
+			for (int twilight = 0; twilight < AlmanacStore.TWILIGHTS; twilight++) {
+				body.writeDouble(result.dawn[twilight * days + day]);
+				body.writeDouble(result.dusk[twilight * days + day]);
+			}
+		}
+		body.flush();
+
+		CRC32 crc = new CRC32();
+		crc.update(bytes.toByteArray());
+		DataOutputStream out = new DataOutputStream(stream);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(CalculationProfile.active().getFlags());
+		out.writeLong(crc.getValue());
+		bytes.writeTo(out);
+		out.flush();
+	}
+
+	static RangeResult read(InputStream stream) throws IOException {
+		DataInputStream in = new DataInputStream(stream);
+		if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != CalculationProfile.active().getFlags())
+			throw new IOException("made by another version or calculation profile");
+		long checksum = in.readLong();
+		ByteArrayOutputStream remaining = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		for (int n = in.read(buffer); n > 0; n = in.read(buffer))
+			remaining.write(buffer, 0, n);
+		byte[] rest = remaining.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(rest);
+		if (crc.getValue() != checksum)
+			throw new IOException("checksum doesn't match");
+
+		DataInputStream body = new DataInputStream(new ByteArrayInputStream(rest));
+		LocalDate start = LocalDate.ofEpochDay(body.readLong());
+		int days = body.readInt();
+		if (days < 1 || days > MAX_DAYS)
+			throw new IOException(days + " days");
+		GeoLocation location = new GeoLocation(body.readDouble(), body.readDouble(), body.readDouble(), ZoneId.of(body.readUTF()));
+		boolean complete = body.readBoolean();
+
+		RangeResult result = new RangeResult(start, days, location);
+		for (int day = 0; day < days; day++) {
+			result.illumination[day] = body.readDouble();
+			result.phase[day] = ordinal(body.readByte(), MoonPhase.values().length, false);
+			result.sunrise[day] = body.readDouble();
+			result.sunset[day] = body.readDouble();
+			result.moonrise[day] = body.readDouble();
+			result.moonset[day] = body.readDouble();
+			result.nextSolarEclipse[day] = body.readDouble();
+			result.nextLunarEclipse[day] = body.readDouble();
+			result.nextSolarEclipseDate[day] = body.readInt();
+			result.nextLunarEclipseDate[day] = body.readInt();
+			result.lunation[day] = body.readDouble();
+			result.lunationQuarter[day] = ordinal(body.readByte(), LunationTable.Quarter.values().length, true);
+			result.solarNoon[day] = body.readDouble();
+			result.dayLength[day] = body.readDouble();
+			for (int twilight = 0; twilight < AlmanacStore.TWILIGHTS; twilight++) {
+				result.dawn[twilight * days + day] = body.readDouble();
+				result.dusk[twilight * days + day] = body.readDouble();
+			}
+		}
+		result.complete = complete;
+		return result;
+	}
+
+	// An enum ordinal read back from the file, -1 allowed for "none" where the column uses it
+	private static byte ordinal(byte value, int count, boolean noneAllowed) throws IOException {
+		if (value >= count || value < (noneAllowed ? -1 : 0))
+			throw new IOException("bad value " + value);
+		return value;
+	}
+}
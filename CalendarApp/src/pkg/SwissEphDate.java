@@ -1,51 +1,62 @@
 package pkg;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import javafx.scene.image.Image;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
 import swisseph.*; // If you're having issues with importing swisseph try changing the build path to the jar in eclispe
 
 /*
  * This class is intended to act as an easy way for the calendar GUI to interface with the Swiss Ephemeris library
  * The class is created with a date and location which cannot be changed after creation, only creating a new one will change it
+ * The date is a local day in the location's time zone, every event returned happens between its local midnights
+ * It holds no calculation state of its own (see EphemerisEngine) so one instance can be shared between threads
  * Using the provided day and location the class will use the swiss eph library to perform various calculations
  * Link to swiss eph documentation: http://www.th-mack.de/download/swisseph-doc/swisseph/SwissEph.html
  */
 
 public class SwissEphDate {
-	// Two SwissEph APIs used to interact with the library, sw performs calculations
-	// while sd handles dates and converting from greorian to julian
-	SweDate sd = new SweDate();
-	SwissEph sw = new SwissEph();
+	// Calculations borrow a SwissEph from the shared engine instead of each date owning one,
+	// this keeps SwissEphDate a cheap immutable value that can be used from any thread
+	static final EphemerisEngine ENGINE = EphemerisEngine.shared();
+	static final CalculationMetrics METRICS = CalculationMetrics.shared();
 
 	// Setting up constants which will be used with sw when performing calculations
-	final int EARTH = SweConst.SE_EARTH;
-	final int MOON = SweConst.SE_MOON;
-	final int SUN = SweConst.SE_SUN;
-	final int SWISSEPH = SweConst.SEFLG_SWIEPH;
+	static final int EARTH = SweConst.SE_EARTH;
+	static final int MOON = SweConst.SE_MOON;
+	static final int SUN = SweConst.SE_SUN;
+	static final int MERCURY = SweConst.SE_MERCURY;
+	static final int VENUS = SweConst.SE_VENUS;
+	static final int MARS = SweConst.SE_MARS;
+	static final int JUPITER = SweConst.SE_JUPITER;
+	static final int SATURN = SweConst.SE_SATURN;
 
 	// Variables set up during constructor which will be used in calculations
-	LocalDate gregDate;
-	double julianDate;
-	double[] position; // contains longitude, latitude and elevation in that order
-	int timeZoneOffset;
+	final LocalDate gregDate;
+	final double julianDate; // 0h UT of the date
+	final GeoLocation location;
+	final double[] position; // contains longitude, latitude and elevation in that order
+	final OffsetTable offsets; // local times around the date
+	final double dayStart; // local midnight as a julian date (UT)
+	final double dayEnd; // next local midnight
 
+	// Time zone is a fixed offset from the longitude, see GeoLocation
 	public SwissEphDate(LocalDate date, double longitude, double latitude, double elevation) {
-		// Setting up sd with date provided
-		sd.setDate(date.getYear(), date.getMonthValue(), date.getDayOfMonth(), 0);
-		
-		julianDate = sd.getJulDay();
+		this(date, new GeoLocation(longitude, latitude, elevation));
+	}
+
+	public SwissEphDate(LocalDate date, GeoLocation location) {
+		julianDate = EphemerisEngine.julianDay(date.getYear(), date.getMonthValue(), date.getDayOfMonth());
 		gregDate = date;
+		this.location = location;
 
 		// Creating position array with data provided
-		position = new double[] { longitude, latitude, elevation };
-		
-		// Calculates time zone from longitude 
-		timeZoneOffset = (int)(longitude / 15) * -1;
-		
-		// Puts sd object in gregorian mode to make converting from julian easier later
-		sd.setCalendarType(true, true);
+		position = location.toArray();
+
+		// Local day from the location's time zone, the table reaches a day either side for events near midnight
+		offsets = OffsetTable.covering(location.getZone(), julianDate - 2, julianDate + 3);
+		dayStart = offsets.startOfDay(date);
+		dayEnd = offsets.startOfDay(date.plusDays(1));
 	}
 
 	
@@ -55,137 +66,141 @@ public class SwissEphDate {
 	public int getMonth() { return gregDate.getMonthValue(); }
 	public int getDayOfMonth() { return gregDate.getDayOfMonth(); }
 	public int getDayOfWeek() { return gregDate.getDayOfWeek().getValue(); }
-	public int getTimeZone() { return timeZoneOffset; } // returns amount of hours ahead / behind greenwich time (PST is +7)
+	public int getTimeZone() { return -offsets.offsetSeconds(dayStart) / 3600; } // returns amount of hours ahead / behind greenwich time at the start of the day (PST is +8, PDT +7)
+	public GeoLocation getLocation() { return location; }
 
 	// *** Main calculation methods (moon, sunrise/set & eclipses)
 
 	// Returns phase of moon in a string such as "Waning Crescent" or "Full Moon"
 	public String getMoonPhase() {
-		double litpercent = getMoonPhasePercent();
-		String output = "";
-		
-		// Calculates wether Waxing or Waning based on previous day
-		if(litpercent > anotherDate(-1).getMoonPhasePercent())
-			output += "Waxing ";
-		else
-			output += "Waning ";
-		
-		// Calculates moon phase based on % lit
-		if(litpercent > .99)
-			output = "Full Moon";
-		else if (litpercent > .5)
-			output += "Gibbous";
-		else if (litpercent > .01)
-			output += "Crescent";
-		else
-			output = "New Moon";
-		
-		return output;
+		return getMoonPhaseValue().toString();
+	}
+
+	// Same as above as a MoonPhase
+	public MoonPhase getMoonPhaseValue() {
+		return getDaySummary().getMoonPhase();
 	}
 	
 	// Returns % of moon lit relative to earth, useful for moon phase calculations
 	public double getMoonPhasePercent() {
-		// Calculates % of moon currently lit relative to earth into data[1]
-		double[] data = new double[20];
-		sw.swe_pheno(julianDate, MOON, SWISSEPH, data, new StringBuffer("Calculation failed"));
-		return data[1];
+		return getDaySummary().getIllumination();
 	}
 	
-	// Returns an image in the res folder corresponding to the current moon phase
+	// Returns the shared image corresponding to the current moon phase
 	public Image getMoonPhaseImg() {
-		String phase = getMoonPhase();
-		phase.replace(" ", ""); // Removes spaces from string
-		
-		try {
-			FileInputStream fis = new FileInputStream("./res/" + phase + ".png");
-			return new Image(fis);
-		} catch (FileNotFoundException e) {
-			System.out.println("File not found: " + phase);
-			return null;
+		return MoonPhaseAtlas.get(getMoonPhaseValue());
+	}
+	
+	// Returns every rise / set time and the moon phase for the day in one calculation
+	// Days are kept in the shared DayCache so asking for each value separately only calculates once,
+	// and in the location's AlmanacStore so a day calculated in an earlier run is read back from disk
+	public DaySummary getDaySummary() {
+		DaySummary summary = DayCache.shared().get(location, gregDate);
+		if (summary != null)
+			return summary;
+
+		AlmanacStore store = AlmanacStore.forLocation(location);
+		summary = store != null ? store.getDaySummary(gregDate) : null;
+		if (summary == null) {
+			summary = ENGINE.compute(sw -> {
+				return DaySummary.calculate(sw, gregDate, offsets, dayStart, dayEnd, location, new double[20], new StringBuffer());
+			});
+			if (store != null)
+				store.putDay(summary);
 		}
+		DayCache.shared().put(location, summary);
+		return summary;
+	}
+
+	// Returns the new moon, quarter or full moon happening on this day with its exact time, null if there is none
+	public LunationTable.Lunation getLunation() {
+		return LunationTable.shared().lunationOn(dayStart, dayEnd);
+	}
+
+	// Local date and time of the day's new moon, quarter or full moon, null if there is none
+	public LocalDateTime getLunationTime() {
+		LunationTable.Lunation lunation = getLunation();
+		return lunation != null ? offsets.toLocalDateTime(lunation.getJulianDay()) : null;
+	}
+
+	// Rise and set times, altitude at dusk and magnitude of Mercury to Saturn for the day, see PlanetOverview
+	public PlanetOverview getPlanets() {
+		double sunset = getDaySummary().getSunset();
+		return ENGINE.compute(sw -> PlanetOverview.calculate(sw, gregDate, location, offsets, new double[] { dayStart, dayEnd }, new double[] { sunset }));
 	}
 	
 	// Returns a string of the sunrise time in 24 hours for current date eg. 18:32 or 6:07
 	public String getSunriseTime() {
-		DblObj data = new DblObj(0); // Holds julian date of when sunrise occurs after calculation
-		sw.swe_rise_trans(julianDate, SUN, null, SWISSEPH, SweConst.SE_CALC_RISE, position, 0, 22, data, new StringBuffer("Sunrise Calculation failed"));
-		
-		// Converting julian date provided to time
-		sd.setJulDay(data.val); 
-		int hour = setTimezone(sd.getHour());
-		return (hour + ":" + getMinutes(sd.getHour()));
+		return getDaySummary().format(DaySummary.Event.SUNRISE);
 	}
 	
 	// Same as above but for sunset
 	public String getSunsetTime() {
-		DblObj data = new DblObj(0); // Holds julian date of when sunrise occurs after calculation
-		sw.swe_rise_trans(julianDate, SUN, null, SWISSEPH, SweConst.SE_CALC_SET, position, 0, 22, data, new StringBuffer("Sunset Calculation failed"));
-		
-		// Converting julian date provided to time
-		sd.setJulDay(data.val); 
-		int hour = setTimezone(sd.getHour());
-		return (hour + ":" + getMinutes(sd.getHour()));
+		return getDaySummary().format(DaySummary.Event.SUNSET);
 	}
 	
 	// Moonrise time
 	public String getMoonriseTime() {
-		DblObj data = new DblObj(0); // Holds julian date of when sunrise occurs after calculation
-		sw.swe_rise_trans(julianDate, MOON, null, SWISSEPH, SweConst.SE_CALC_RISE, position, 0, 22, data, new StringBuffer("Sunrise Calculation failed"));
-		
-		// Converting julian date provided to time
-		sd.setJulDay(data.val); 
-		int hour = setTimezone(sd.getHour());
-		return (hour + ":" + getMinutes(sd.getHour()));
+		return getDaySummary().format(DaySummary.Event.MOONRISE);
 	}
 	
 	// Moonset time
 	public String getMoonsetTime() {
-		DblObj data = new DblObj(0); // Holds julian date of when sunrise occurs after calculation
-		sw.swe_rise_trans(julianDate, MOON, null, SWISSEPH, SweConst.SE_CALC_SET, position, 0, 22, data, new StringBuffer("Sunset Calculation failed"));
-		
-		// Converting julian date provided to time
-		sd.setJulDay(data.val); 
-		int hour = setTimezone(sd.getHour());
-		return (hour + ":" + getMinutes(sd.getHour()));
+		return getDaySummary().format(DaySummary.Event.MOONSET);
+	}
+	
+	// Time the sun crosses the meridian
+	public String getSolarNoonTime() {
+		return getDaySummary().formatSolarNoon();
 	}
 	
-	// Returns a LocalDate object containing the next solar eclipse for provided location
+	// Hours and minutes the sun is up during the day eg. 10:52, 0:00 or 24:00 in polar night or day
+	public String getDayLength() {
+		return getDaySummary().formatDayLength();
+	}
+	
+	// Start of the morning twilight, "None" if the sun doesn't get that far below the horizon
+	public String getDawnTime(DaySummary.Twilight twilight) {
+		return getDaySummary().formatDawn(twilight);
+	}
+	
+	// End of the evening twilight
+	public String getDuskTime(DaySummary.Twilight twilight) {
+		return getDaySummary().formatDusk(twilight);
+	}
+	
+	// Returns a LocalDate object containing the next solar eclipse for provided location, the local date of its maximum
 	public LocalDate getNextSolarEclipse() {
-		double[] tret = new double[20], attr = new double[20]; // used for holding data from calculations
-		sw.swe_sol_eclipse_when_loc(julianDate, SWISSEPH, position, tret, attr, 0, new StringBuffer("s eclipse Calculation failed"));
-		
-		sd.setJulDay(tret[0]); // Calculation puts julian date of occurance in tret[0]
-		return LocalDate.of(sd.getYear(), sd.getMonth(), sd.getDay());
+		AlmanacStore store = AlmanacStore.forLocation(location);
+		int index = AlmanacStore.index(gregDate.toEpochDay());
+		if (store != null && store.hasEclipses(index))
+			return toLocalDate(store.getNextSolarEclipse(index));
+		return toLocalDate(nextEclipse(EclipseCatalog.solar(), dayStart, location));
 	}
 	
 	public LocalDate getNextLunarEclipse() {
-		double[] tret = new double[20], attr = new double[20]; // used for holding data from calculations
-		sw.swe_lun_eclipse_when_loc(julianDate, SWISSEPH, position, tret, attr, 0, new StringBuffer("Machine broke"));
-		
-		sd.setJulDay(tret[0]); // Calculation puts julian date of occurance in tret[0]
-		return LocalDate.of(sd.getYear(), sd.getMonth(), sd.getDay());
+		AlmanacStore store = AlmanacStore.forLocation(location);
+		int index = AlmanacStore.index(gregDate.toEpochDay());
+		if (store != null && store.hasEclipses(index))
+			return toLocalDate(store.getNextLunarEclipse(index));
+		return toLocalDate(nextEclipse(EclipseCatalog.lunar(), dayStart, location));
+	}
+
+	// Local date of an eclipse, which can be years after the date so it isn't looked up in the date's table
+	private LocalDate toLocalDate(double julianDay) {
+		return OffsetTable.covering(location.getZone(), julianDay, julianDay).toLocalDate(julianDay);
 	}
 	
 	// *** Other calculation methods that might be useful for a GUI
 	
 	// Returns another SwissEphDate object + or - the amount of days specified in the method
 	public SwissEphDate anotherDate(int days) {
-		return new SwissEphDate(gregDate.plusDays(days), position[0], position[1], position[2]);
+		return new SwissEphDate(gregDate.plusDays(days), location);
 	}
 	
 	// Returns amount of days in the month the date is in
 	public int daysInMonth() {
-		int current = gregDate.getDayOfMonth();
-		int next = gregDate.getDayOfMonth();
-		int inc = 1;
-		
-		while (next != 1) {
-			current = next;
-			next = anotherDate(inc).getDayOfMonth();
-			inc ++;
-		}
-		
-		return current;
+		return YearMonth.from(gregDate).lengthOfMonth();
 	}
 	
 	// Returns whether the day contains a solar eclipse, might be useful for guis
@@ -202,26 +217,32 @@ public class SwissEphDate {
 		return false;
 	}
 	
-	// *** Private methods to help with calculations
+	// *** Helpers shared with RangeCalculator so single dates and ranges find eclipses the same way
 
-	// Sets an hour output to a time zone
-	private int setTimezone(double input) {
-		int output = (int) input - timeZoneOffset;
-		if (output < 0) output += 24;
-		return output;
-	}
+	// Returns julian date of the next eclipse visible from a location, looked up in the eclipse catalog
+	// and only searched for directly when the date is outside the years the catalog covers
+	static double nextEclipse(EclipseCatalog catalog, double julianDay, GeoLocation location) {
+		if (EclipseCatalog.covers(julianDay)) {
+			EclipseCatalog.LocalEclipse next = catalog.nextLocal(julianDay, location);
+			if (next != null)
+				return next.getMaximum();
+		}
 
-	// Gets number of minutes from the fraction on the sd.getHour() method
-	private String getMinutes(double input) {
-		int minutes = (int) ((input - (int) input) * 60);
-		String output = Integer.toString(minutes);
-		if (minutes < 10)
-			output = "0" + output;
-		return output;
+		double[] tret = new double[20], attr = new double[20]; // used for holding data from calculations
+		double[] position = location.toArray();
+		ENGINE.compute(sw -> {
+			long start = METRICS.begin();
+			int type = catalog.getKind() == EclipseCatalog.Kind.SOLAR
+					? sw.swe_sol_eclipse_when_loc(julianDay, CalculationProfile.active().getFlags(), position, tret, attr, 0, new StringBuffer("s eclipse Calculation failed"))
+					: sw.swe_lun_eclipse_when_loc(julianDay, CalculationProfile.active().getFlags(), position, tret, attr, 0, new StringBuffer("Machine broke"));
+			METRICS.end(CalculationMetrics.Operation.ECLIPSE_LOCAL, start);
+			return type;
+		});
+		return tret[0]; // Calculation puts julian date of occurance in tret[0]
 	}
-	
-	//Get longitude, latitude, and elevation
+
+	//Get longitude, latitude, and elevation, a copy so the date stays immutable
 	public double[] getPositions() {
-		return position;
+		return position.clone();
 	}
 }
\ No newline at end of file
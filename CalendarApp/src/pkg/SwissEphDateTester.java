@@ -1,9 +1,37 @@
 package pkg;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class SwissEphDateTester {
 	public static void main(String[] args) {
+		// Keep almanac files out of ~/.calendarapp, set before the store or snapshot are first used
+		File storeDir;
+		try {
+			storeDir = Files.createTempDirectory("almanac").toFile();
+		} catch (IOException e) {
+			System.out.println("could not create a store directory: " + e.getMessage());
+			return;
+		}
+		System.setProperty("calendar.store.dir", storeDir.getPath());
+		System.setProperty("calendar.snapshot", "false");
+		
 		SwissEphDate s = new SwissEphDate(LocalDate.of(2021, 10, 13), -119.4960, 49.803, 334.0);
 		
 		// Julian to gregorian test
@@ -23,11 +51,11 @@ public class SwissEphDateTester {
 			System.out.println("test 4 failed");
 		
 		// Moon % test
-		if(s.getMoonPhasePercent() != 0.48514204801618566)
+		if(s.getMoonPhasePercent() != 0.5178851488725079)
 			System.out.println("test 5 failed");
 		
 		// Moon phase test
-		if(!s.getMoonPhase().contentEquals("Waxing Crescent"))
+		if(!s.getMoonPhase().contentEquals("Waxing Gibbous"))
 			System.out.println("test 6 failed");
 		
 		// Sunrise time test
@@ -35,7 +63,7 @@ public class SwissEphDateTester {
 			System.out.println("test 7 failed");
 		
 		// Sunset time test
-		if(!s.getSunsetTime().contentEquals("18:11"))
+		if(!s.getSunsetTime().contentEquals("18:09"))
 			System.out.println("test 8 failed");
 		
 		// Solar eclipse test
@@ -57,6 +85,193 @@ public class SwissEphDateTester {
 		if(s.isSolarEclipse() == false)
 			System.out.println("test 12 failed");
 		
+		// Shared instance used from many threads test
+		SwissEphDate shared = new SwissEphDate(LocalDate.of(2021, 10, 13), -119.4960, 49.803, 334.0);
+		List<Callable<String>> calls = new ArrayList<>();
+		for (int i = 0; i < 16; i++)
+			calls.add(() -> shared.getSunriseTime() + " " + shared.getMoonsetTime() + " " + shared.getMoonPhase());
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			boolean agreed = true;
+			for (Future<String> f : pool.invokeAll(calls))
+				agreed &= f.get().contentEquals("7:17 23:59 Waxing Gibbous");
+			if(!agreed)
+				System.out.println("test 13 failed");
+		} catch (InterruptedException | ExecutionException e) {
+			System.out.println("test 13 failed");
+		}
+		pool.shutdown();
+		
+		// Eclipse catalog lookup test
+		GeoLocation kelowna = new GeoLocation(-119.4960, 49.803, 334.0);
+		if(!EclipseCatalog.lunar().isEclipseOn(LocalDate.of(2021, 11, 19), kelowna) || EclipseCatalog.lunar().isEclipseOn(LocalDate.of(2021, 11, 18), kelowna))
+			System.out.println("test 14 failed");
+		
+		// Day summary test
+		DaySummary summary = new SwissEphDate(LocalDate.of(2021, 10, 13), -119.4960, 49.803, 334.0).getDaySummary();
+		if(summary.getMinuteOfDay(DaySummary.Event.SUNRISE) != 7 * 60 + 17 || !summary.format(DaySummary.Event.SUNSET).contentEquals("18:09")
+				|| summary.getMoonPhase() != MoonPhase.WAXING_GIBBOUS)
+			System.out.println("test 15 failed");
+		
+		// Midnight sun has no sunset test
+		summary = new SwissEphDate(LocalDate.of(2021, 6, 21), 18.9, 69.6, 0).getDaySummary();
+		if(summary.getStatus(DaySummary.Event.SUNSET) != DaySummary.NO_EVENT || !summary.format(DaySummary.Event.SUNSET).contentEquals("None"))
+			System.out.println("test 16 failed");
+		
+		// Least recently used day is evicted test
+		DayCache cache = new DayCache(2);
+		GeoLocation here = new GeoLocation(-119.4960, 49.803, 334.0);
+		cache.put(here, new SwissEphDate(LocalDate.of(2021, 10, 13), here).getDaySummary());
+		cache.put(here, new SwissEphDate(LocalDate.of(2021, 10, 14), here).getDaySummary());
+		cache.get(here, LocalDate.of(2021, 10, 13));
+		cache.put(here, new SwissEphDate(LocalDate.of(2021, 10, 15), here).getDaySummary());
+		if(cache.get(here, LocalDate.of(2021, 10, 14)) != null || cache.get(here, LocalDate.of(2021, 10, 13)) == null || cache.getEvictions() != 1)
+			System.out.println("test 17 failed");
+		
+		// Almanac store keeps days between runs and rebuilds a file made for another location test
+		try {
+			File file = File.createTempFile("almanac", ".bin");
+			file.deleteOnExit();
+			summary = new SwissEphDate(LocalDate.of(2021, 10, 13), here).getDaySummary();
+			AlmanacStore.open(here, file).putDay(summary);
+			DaySummary stored = AlmanacStore.open(here, file).getDaySummary(summary.getDate());
+			if(stored == null || !stored.toString().contentEquals(summary.toString())
+					|| AlmanacStore.open(new GeoLocation(18.9, 69.6, 1), file).getDaySummary(summary.getDate()) != null)
+				System.out.println("test 18 failed");
+		} catch (IOException e) {
+			System.out.println("test 18 failed");
+		}
+		
+		// Latency histogram test
+		CalculationMetrics metrics = new CalculationMetrics(true);
+		metrics.record(CalculationMetrics.Operation.RANGE, 1000);
+		metrics.record(CalculationMetrics.Operation.RANGE, 3000000);
+		CalculationMetrics.OperationMXBean range = metrics.get(CalculationMetrics.Operation.RANGE);
+		if(range.getCount() != 2 || range.getMaxMicros() != 3000 || range.getP50Micros() < 1 || range.getP50Micros() > 1.25)
+			System.out.println("test 19 failed");
+		
+		// Exact lunation times test, full moon 2021-11-19 08:57 UT and first quarter 2021-10-13 03:25 UT
+		LunationTable.Lunation full = new SwissEphDate(LocalDate.of(2021, 11, 19), here).getLunation();
+		LunationTable.Lunation quarter = LunationTable.shared().previous(EphemerisEngine.julianDay(2021, 10, 14));
+		if(full == null || full.getQuarter() != LunationTable.Quarter.FULL_MOON || !full.formatTime().contentEquals("8:57")
+				|| quarter.getQuarter() != LunationTable.Quarter.FIRST_QUARTER || !quarter.formatTime().contentEquals("3:25")
+				|| new SwissEphDate(LocalDate.of(2021, 11, 19), here).getMoonPhaseValue() != MoonPhase.FULL_MOON)
+			System.out.println("test 20 failed");
+
+		// Rise / set sweep matches the single day calculations and finds polar day and night test
+		String swept = EphemerisEngine.shared().compute(sw -> {
+			double october = EphemerisEngine.julianDay(2021, 10, 1), june = EphemerisEngine.julianDay(2021, 6, 21), december = EphemerisEngine.julianDay(2021, 12, 21);
+			RiseSetSweep.Events sun = new RiseSetSweep(sw, here).sweep(SwissEphDate.SUN, october, october + 31);
+			RiseSetSweep.Events moon = new RiseSetSweep(sw, here).sweep(SwissEphDate.MOON, october, october + 31);
+			RiseSetSweep tromso = new RiseSetSweep(sw, new GeoLocation(18.9, 69.6, 0));
+			RiseSetSweep.Events midsummer = tromso.sweep(SwissEphDate.SUN, june, june + 1);
+			RiseSetSweep.Events midwinter = tromso.sweep(SwissEphDate.SUN, december, december + 1);
+			OffsetTable local = OffsetTable.of(here.getZone(), october, october + 31);
+			double start = local.startOfDay(LocalDate.of(2021, 10, 13)), end = local.startOfDay(LocalDate.of(2021, 10, 14));
+			return local.format(sun.rise(start, end)) + " " + local.format(sun.set(start, end)) + " " + local.format(moon.set(start, end))
+					+ " " + midsummer.horizon(june, june + 1) + " " + midwinter.horizon(december, december + 1)
+					+ " " + OffsetTable.UTC.format(midsummer.set(june, june + 1));
+		});
+		if(!swept.contentEquals("7:17 18:09 23:59 ALWAYS_UP ALWAYS_DOWN None"))
+			System.out.println("test 21 failed");
+
+		// Daylight saving test, 2021-03-14 is 23 hours long in Vancouver and an event just after local midnight
+		// is on the local date, not the UT one
+		GeoLocation kelownaLocal = here.withZone(ZoneId.of("America/Vancouver"));
+		OffsetTable vancouver = OffsetTable.of(ZoneId.of("America/Vancouver"), EphemerisEngine.julianDay(2021, 1, 1), EphemerisEngine.julianDay(2022, 1, 1));
+		double march14 = vancouver.startOfDay(LocalDate.of(2021, 3, 14)), march15 = vancouver.startOfDay(LocalDate.of(2021, 3, 15));
+		if(Math.round((march15 - march14) * 24) != 23 || vancouver.size() != 3 || vancouver.offsetSeconds(march15) != -7 * 3600
+				|| !vancouver.toLocalDate(march15 + 0.01).equals(LocalDate.of(2021, 3, 15)) || !vancouver.format(march15 + 1 / 48.0).contentEquals("0:30"))
+			System.out.println("test 22 failed");
+
+		// Session snapshot reads back the same month and a damaged one is refused test
+		try {
+			RangeResult october = new RangeCalculator().calculateMonth(LocalDate.of(2021, 10, 1), kelownaLocal);
+			ByteArrayOutputStream saved = new ByteArrayOutputStream();
+			SessionSnapshot.write(october, saved);
+			byte[] bytes = saved.toByteArray();
+			RangeResult restored = SessionSnapshot.read(new ByteArrayInputStream(bytes));
+			bytes[bytes.length - 3] ^= 1;
+			boolean refused = false;
+			try {
+				SessionSnapshot.read(new ByteArrayInputStream(bytes));
+			} catch (IOException e) {
+				refused = true;
+			}
+			if(SessionSnapshot.differences(restored, october) != 0 || !restored.isComplete() || !restored.getLocation().equals(kelownaLocal) || !refused)
+				System.out.println("test 23 failed");
+		} catch (IOException e) {
+			System.out.println("test 23 failed");
+		}
+
+		// Planet overview test, the month's batch agrees with the single day and only Mars is up at dusk mid March 2021
+		PlanetOverview march = PlanetOverview.calculate(new RangeCalculator().calculateMonth(LocalDate.of(2021, 3, 1), kelownaLocal));
+		PlanetOverview ides = new SwissEphDate(LocalDate.of(2021, 3, 15), kelownaLocal).getPlanets();
+		if(march.size() != 31 || !march.describe(14).contentEquals(ides.describe(0)) || !march.getVisibleShortNames(14).contentEquals("Ma")
+				|| !march.getRiseTime(1, 14).contentEquals("7:16") || march.getMagnitude(1, 14) > -3.5)
+			System.out.println("test 24 failed");
+
+		// Twilight test, civil dawn to dusk in Kelowna and a polar day and night in Tromso, single day and month batch agree
+		SwissEphDate october13 = new SwissEphDate(LocalDate.of(2021, 10, 13), here);
+		DaySummary midsummer = new SwissEphDate(LocalDate.of(2021, 6, 21), 18.9, 69.6, 0).getDaySummary();
+		DaySummary midwinter = new SwissEphDate(LocalDate.of(2021, 12, 21), 18.9, 69.6, 0).getDaySummary();
+		RangeResult octoberMonth = new RangeCalculator().calculateMonth(LocalDate.of(2021, 10, 1), here);
+		if(!october13.getSolarNoonTime().contentEquals("12:44") || !october13.getDayLength().contentEquals("10:52")
+				|| !october13.getDawnTime(DaySummary.Twilight.CIVIL).contentEquals("6:44") || !october13.getDuskTime(DaySummary.Twilight.ASTRONOMICAL).contentEquals("19:57")
+				|| !midsummer.formatDayLength().contentEquals("24:00") || !midsummer.formatDusk(DaySummary.Twilight.ASTRONOMICAL).contentEquals("None")
+				|| !midwinter.formatDayLength().contentEquals("0:00") || !midwinter.formatDawn(DaySummary.Twilight.CIVIL).contentEquals("9:30")
+				|| !octoberMonth.getDaySummary(12).toString().contentEquals(october13.getDaySummary().toString()))
+			System.out.println("test 25 failed");
+
+		// Almanac query test, 2021's full moons on a weekend and eclipses, and the first new moon with sunset after 20:00
+		// found from the index and by searching ahead agree
+		AlmanacQuery year = new AlmanacQuery(DayIndex.build(new RangeCalculator(), LocalDate.of(2021, 1, 1), LocalDate.of(2021, 12, 31), kelownaLocal));
+		DayPredicate lateNewMoon = DayPredicate.quarter(LunationTable.Quarter.NEW_MOON).and(DayPredicate.after(DaySummary.Event.SUNSET, LocalTime.of(20, 0)));
+		if(!year.findAll(DayPredicate.quarter(LunationTable.Quarter.FULL_MOON).and(DayPredicate.weekend())).toString().contentEquals("[2021-02-27, 2021-03-28, 2021-08-22, 2021-12-18]")
+				|| !year.findAll(DayPredicate.solarEclipse().or(DayPredicate.lunarEclipse())).toString().contentEquals("[2021-05-26, 2021-11-19]")
+				|| !LocalDate.of(2021, 5, 11).equals(year.findFirst(lateNewMoon)) || year.count(lateNewMoon) != 4
+				|| !LocalDate.of(2021, 6, 10).equals(AlmanacQuery.findNext(new RangeCalculator(), kelownaLocal, LocalDate.of(2021, 5, 12), lateNewMoon)))
+			System.out.println("test 26 failed");
+
+		// ICS feed test, 2021 has 12 full moons and 2 lunar eclipses seen from Kelowna, a feed continued with append is
+		// the same as one written in one go, and a feed for another location isn't continued
+		try {
+			File whole = File.createTempFile("almanac", ".ics"), continued = File.createTempFile("almanac", ".ics");
+			whole.deleteOnExit();
+			continued.deleteOnExit();
+			try (Writer out = new FileWriter(whole)) {
+				new IcsExporter(kelownaLocal, true).export(LocalDate.of(2021, 1, 1), LocalDate.of(2021, 12, 31), out, null);
+			}
+			try (Writer out = new FileWriter(continued)) {
+				new IcsExporter(kelownaLocal, true).export(LocalDate.of(2021, 1, 1), LocalDate.of(2021, 6, 30), out, null);
+			}
+			int added = new IcsExporter(kelownaLocal, true).append(continued, LocalDate.of(2021, 12, 31), null);
+			String feed = new String(Files.readAllBytes(whole.toPath()), StandardCharsets.US_ASCII).replaceAll("DTSTAMP:\\w+", "");
+			boolean refused = false;
+			try {
+				new IcsExporter(here, true).append(continued, LocalDate.of(2022, 12, 31), null);
+			} catch (IOException e) {
+				refused = true;
+			}
+			if(feed.split("SUMMARY:Full Moon", -1).length != 13 || feed.split("Lunar Eclipse\r\n", -1).length != 3 || added < 360
+					|| !feed.contentEquals(new String(Files.readAllBytes(continued.toPath()), StandardCharsets.US_ASCII).replaceAll("DTSTAMP:\\w+", ""))
+					|| !refused || new IcsExporter(kelownaLocal, true).append(continued, LocalDate.of(2021, 12, 31), null) != 0)
+				System.out.println("test 27 failed");
+		} catch (IOException | InterruptedException e) {
+			System.out.println("test 27 failed");
+		}
+
+		delete(storeDir);
 		System.out.println("tests completed.");
 	}
+	
+	// Deletes a directory and everything in it
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		if (!file.delete())
+			System.out.println("could not delete " + file);
+	}
 }
@@ -0,0 +1,213 @@
+package pkg;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.geometry.Insets;
+import javafx.scene.Node;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Pane;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+
+/*
+ * Scrollable view of every month from 1900 to 2100, three months to a row
+ * Built on a ListView so only the rows on screen have nodes, scrolling rebinds those few rows to other months
+ * instead of building new ones, so a decade can be scrolled through with about one screen's worth of nodes
+ * Each day shows its moon phase, which comes straight from the LunationTable (no rise / set calculations),
+ * a decade that hasn't been worked out yet is calculated in the background and its rows fill in when it is done
+ * Clicking a day hands it to the listener, the calendar opens that month
+ */
+
+public class YearView {
+	public static final int MONTHS_PER_ROW = 3;
+	static final YearMonth FIRST_MONTH = YearMonth.of(1900, 1);
+	static final YearMonth LAST_MONTH = YearMonth.of(2100, 12);
+
+	private static final int DAY_SIZE = 24;
+	private static final double ROW_HEIGHT = 7 * DAY_SIZE + 30; // title, weekday headers and six weeks
+
+	private final ListView<YearMonth> list = new ListView<>();
+	private final GeoLocation location;
+	private final Consumer<LocalDate> listener;
+
+	// Decades are searched one at a time on this thread, the start of each one asked for is remembered
+	private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "year-view-lunations");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final Set<Integer> requested = new HashSet<>();
+
+	public YearView(GeoLocation location, Consumer<LocalDate> listener) {
+		this.location = location;
+		this.listener = listener;
+
+		// One item per row, the first month in it
+		List<YearMonth> rows = new ArrayList<>();
+		for (YearMonth m = FIRST_MONTH; !m.isAfter(LAST_MONTH); m = m.plusMonths(MONTHS_PER_ROW))
+			rows.add(m);
+		list.setItems(FXCollections.observableArrayList(rows));
+		list.setCellFactory(view -> new RowCell());
+		list.setFixedCellSize(ROW_HEIGHT);
+		list.setPrefSize(MONTHS_PER_ROW * (7 * DAY_SIZE + 20) + 20, ROW_HEIGHT * 3);
+	}
+
+	public Node getView() { return list; }
+
+	// Scrolls so the row with the month is at the top
+	public void scrollTo(YearMonth month) {
+		list.scrollTo(rowOf(month));
+	}
+
+	// Stops the background calculations, the view can't be used afterwards
+	public void dispose() {
+		worker.shutdownNow();
+	}
+
+	static int rowOf(YearMonth month) {
+		int months = (month.getYear() - FIRST_MONTH.getYear()) * 12 + month.getMonthValue() - 1;
+		return Math.max(0, months / MONTHS_PER_ROW);
+	}
+
+	// Starts working out the lunations of a month if they aren't known yet, rows are redrawn once they are
+	private boolean ensureLunations(double start, double end) {
+		if (LunationTable.shared().isCalculated(start, end))
+			return true;
+		int window = LunationTable.windowIndex(start);
+		if (requested.add(window)) {
+			worker.execute(() -> {
+				LunationTable.shared().calculate(start, end);
+				Platform.runLater(list::refresh);
+			});
+		}
+		return false;
+	}
+
+	// *** Cells
+
+	// A row of months, rebound each time the ListView scrolls it to another item
+	private class RowCell extends ListCell<YearMonth> {
+		private final MonthGrid[] months = new MonthGrid[MONTHS_PER_ROW];
+		private final HBox box = new HBox(20);
+
+		RowCell() {
+			for (int i = 0; i < months.length; i++) {
+				months[i] = new MonthGrid();
+				box.getChildren().add(months[i].view);
+			}
+			box.setPadding(new Insets(5));
+		}
+
+		@Override
+		protected void updateItem(YearMonth first, boolean empty) {
+			super.updateItem(first, empty);
+			if (empty || first == null) {
+				setGraphic(null);
+				return;
+			}
+			for (int i = 0; i < months.length; i++)
+				months[i].bind(first.plusMonths(i));
+			setGraphic(box);
+		}
+	}
+
+	// One month, always six weeks of day cells so rebinding never adds or removes nodes
+	private class MonthGrid {
+		final VBox view = new VBox(2);
+		private final Label title = new Label();
+		private final DayCell[] days = new DayCell[42];
+
+		MonthGrid() {
+			title.setFont(new Font("Arial", 12));
+			GridPane grid = new GridPane();
+			String[] weekdays = { "M", "T", "W", "T", "F", "S", "S" };
+			for (int column = 0; column < 7; column++) {
+				Text header = new Text(weekdays[column]);
+				header.setFont(new Font("Arial", 9));
+				grid.add(header, column, 0);
+			}
+			for (int i = 0; i < days.length; i++) {
+				days[i] = new DayCell();
+				grid.add(days[i].view, i % 7, i / 7 + 1);
+			}
+			view.getChildren().addAll(title, grid);
+		}
+
+		void bind(YearMonth month) {
+			title.setText(month.getMonth() + " " + month.getYear());
+			LocalDate first = month.atDay(1);
+			int offset = first.getDayOfWeek().getValue() - 1;
+
+			// Local days, the same ones the month view uses
+			OffsetTable offsets = OffsetTable.of(location.getZone(), julianDay(first) - 1, julianDay(first) + 33);
+			double[] starts = new double[month.lengthOfMonth() + 1];
+			for (int d = 0; d < starts.length; d++)
+				starts[d] = offsets.startOfDay(first.plusDays(d));
+			boolean phases = ensureLunations(starts[0], starts[starts.length - 1]);
+
+			for (int i = 0; i < days.length; i++) {
+				int d = i - offset;
+				if (d < 0 || d >= month.lengthOfMonth())
+					days[i].clear();
+				else
+					days[i].bind(first.plusDays(d), phases ? LunationTable.shared().phaseOn(starts[d], starts[d + 1]) : null);
+			}
+		}
+	}
+
+	private class DayCell {
+		final Pane view = new Pane();
+		private final Text number = new Text();
+		private final ImageView phase = new ImageView();
+		private LocalDate date;
+
+		DayCell() {
+			view.setMinSize(DAY_SIZE, DAY_SIZE);
+			view.setPrefSize(DAY_SIZE, DAY_SIZE);
+			number.setFont(new Font("Arial", 9));
+			number.relocate(2, 0);
+			phase.setFitWidth(8);
+			phase.setFitHeight(8);
+			phase.relocate(14, 14);
+			view.getChildren().addAll(number, phase);
+			view.setOnMouseClicked(event -> {
+				if (date != null)
+					listener.accept(date);
+			});
+		}
+
+		void bind(LocalDate date, MoonPhase moonPhase) {
+			this.date = date;
+			number.setText(Integer.toString(date.getDayOfMonth()));
+			phase.setImage(moonPhase == null ? null : MoonPhaseAtlas.get(moonPhase, MoonPhaseAtlas.GRID_SIZE));
+			view.getStyleClass().setAll("year-day");
+		}
+
+		// Padding before the first or after the last day of the month
+		void clear() {
+			date = null;
+			number.setText("");
+			phase.setImage(null);
+			view.getStyleClass().clear();
+		}
+	}
+
+	private static double julianDay(LocalDate date) {
+		return EphemerisEngine.julianDay(date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+	}
+}